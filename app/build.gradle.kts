@@ -8,6 +8,9 @@
 plugins {
     // Apply the application plugin to add support for building a CLI application in Java.
     application
+
+    // Microbenchmarks in src/jmh, run with "gradlew jmh"
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 repositories {
@@ -39,6 +42,13 @@ application {
     mainClass = "mrpolyonymous.labelgenerator.LabelMain"
 }
 
+jmh {
+    // Pass e.g. -PjmhIncludes=CsvTokenizer to run a subset of the benchmarks
+    if (project.hasProperty("jmhIncludes")) {
+        includes.set(listOf(project.property("jmhIncludes").toString()))
+    }
+}
+
 tasks.named<Test>("test") {
     // Use JUnit Platform for unit tests.
     useJUnitPlatform()
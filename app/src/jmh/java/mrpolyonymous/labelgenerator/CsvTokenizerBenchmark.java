@@ -0,0 +1,126 @@
+/*
+Copyright 2024 mrpolyonymous
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package mrpolyonymous.labelgenerator;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compare {@link Utils#splitCsv(String, int)} with {@link CsvTokenizer} on lines shaped like
+ * parts.csv, where the part_material column is not used.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CsvTokenizerBenchmark {
+
+    private static final int NUM_LINES = 50_000;
+
+    private String[] lines;
+    private ByteBuffer lineBytes;
+    private int[] lineEnds;
+    private CsvTokenizer tokenizer;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        lines = new String[NUM_LINES];
+        StringBuilder allLines = new StringBuilder();
+        lineEnds = new int[NUM_LINES];
+        int offset = 0;
+        for (int i = 0; i < NUM_LINES; i++) {
+            String partId = (3000 + random.nextInt(90000)) + (random.nextBoolean() ? "" : "pr" + random.nextInt(1000));
+            String name = "Brick " + (1 + random.nextInt(8)) + " x " + (1 + random.nextInt(16));
+            if (random.nextInt(10) == 0) {
+                name = "\"" + name + ", with Studs on Side\"";
+            }
+            lines[i] = partId + "," + name + "," + random.nextInt(70) + ",Plastic";
+            allLines.append(lines[i]).append('\n');
+            offset += lines[i].getBytes(StandardCharsets.UTF_8).length;
+            lineEnds[i] = offset;
+            offset++;
+        }
+        lineBytes = ByteBuffer.wrap(allLines.toString().getBytes(StandardCharsets.UTF_8));
+        tokenizer = new CsvTokenizer(4);
+    }
+
+    @Benchmark
+    public void splitCsv(Blackhole blackhole) {
+        for (String line : lines) {
+            String[] elems = Utils.splitCsv(line, 4);
+            blackhole.consume(elems[0]);
+            blackhole.consume(elems[1]);
+            blackhole.consume(elems[2]);
+        }
+    }
+
+    @Benchmark
+    public void tokenizerChars(Blackhole blackhole) {
+        for (String line : lines) {
+            tokenizer.reset(line);
+            blackhole.consume(tokenizer.getString(0));
+            blackhole.consume(tokenizer.getString(1));
+            blackhole.consume(tokenizer.getString(2));
+        }
+    }
+
+    @Benchmark
+    public void tokenizerBytes(Blackhole blackhole) {
+        int start = 0;
+        for (int lineEnd : lineEnds) {
+            tokenizer.reset(lineBytes, start, lineEnd);
+            blackhole.consume(tokenizer.getString(0));
+            blackhole.consume(tokenizer.getString(1));
+            blackhole.consume(tokenizer.getString(2));
+            start = lineEnd + 1;
+        }
+    }
+
+    /**
+     * Only the ID column, as when checking rows against a set of wanted part IDs
+     */
+    @Benchmark
+    public void splitCsvIdOnly(Blackhole blackhole) {
+        for (String line : lines) {
+            blackhole.consume(Utils.splitCsv(line, 4)[0].hashCode());
+        }
+    }
+
+    @Benchmark
+    public void tokenizerIdOnly(Blackhole blackhole) {
+        for (String line : lines) {
+            tokenizer.reset(line);
+            blackhole.consume(tokenizer.fieldHashCode(0));
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+Copyright 2024 mrpolyonymous
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package mrpolyonymous.labelgenerator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compare adding the lines of a large parts list export to {@link MyParts} with the list scanning
+ * version it replaced. The synthetic export has many colours per part and repeats some part and
+ * colour combinations, like a big collection exported from Rebrickable.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MyPartsBenchmark {
+
+    private static final int NUM_LINES = 50_000;
+    private static final int NUM_PARTS = 4_000;
+    private static final int NUM_COLOURS = 60;
+
+    private PartsCsvDatabase partsDatabase;
+    private PartColourQuantity[] lines;
+
+    @Setup
+    public void setup() {
+        partsDatabase = new PartsCsvDatabase();
+        Part[] parts = new Part[NUM_PARTS];
+        for (int i = 0; i < NUM_PARTS; i++) {
+            parts[i] = Part.from(Integer.toString(3000 + i), "Part " + i, "11");
+            partsDatabase.addPart(parts[i]);
+        }
+        Colour[] colours = new Colour[NUM_COLOURS];
+        for (int i = 0; i < NUM_COLOURS; i++) {
+            colours[i] = new Colour(Integer.toString(i), "Colour " + i, "FFFFFF", false);
+            partsDatabase.addColour(colours[i]);
+        }
+        partsDatabase.freeze();
+
+        Random random = new Random(42);
+        lines = new PartColourQuantity[NUM_LINES];
+        for (int i = 0; i < NUM_LINES; i++) {
+            // Favour a few common parts, which then have many colours
+            int part = (int) (NUM_PARTS * Math.pow(random.nextDouble(), 3));
+            lines[i] = new PartColourQuantity(parts[part], colours[random.nextInt(NUM_COLOURS)], 1 + random.nextInt(20));
+        }
+    }
+
+    /** The previous MyParts.add, which scanned the colours of the part for a duplicate */
+    private void legacyAdd(List<PartColourQuantity> allParts, Map<String, List<MyParts.PartDetails>> partsMap,
+            PartColourQuantity pcq) {
+        allParts.add(pcq);
+        List<MyParts.PartDetails> details = partsMap.computeIfAbsent(pcq.part().id(), k -> new ArrayList<>());
+        Iterator<MyParts.PartDetails> it = details.iterator();
+        while (it.hasNext()) {
+            MyParts.PartDetails partDetails = it.next();
+            if (partDetails.colour().equals(pcq.colour())) {
+                it.remove();
+                details.add(new MyParts.PartDetails(partDetails.part(), partDetails.colour(), partDetails.element(),
+                        partDetails.quantity() + pcq.quantity()));
+                return;
+            }
+        }
+        details.add(new MyParts.PartDetails(pcq.part(), pcq.colour(),
+                partsDatabase.tryGetElementByPartColourId(pcq.part().id(), pcq.colour().id(),
+                        PartsCsvDatabase.NEWEST_ELEMENT_LAST),
+                pcq.quantity()));
+    }
+
+    @Benchmark
+    public void legacyAdd(Blackhole blackhole) {
+        List<PartColourQuantity> allParts = new ArrayList<>(8000);
+        Map<String, List<MyParts.PartDetails>> partsMap = new HashMap<>(8000);
+        for (PartColourQuantity line : lines) {
+            legacyAdd(allParts, partsMap, line);
+        }
+        blackhole.consume(partsMap);
+    }
+
+    @Benchmark
+    public void add(Blackhole blackhole) {
+        MyParts myParts = new MyParts(partsDatabase);
+        for (PartColourQuantity line : lines) {
+            myParts.add(line.part(), line.colour(), line.quantity());
+        }
+        blackhole.consume(myParts);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+Copyright 2024 mrpolyonymous
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package mrpolyonymous.labelgenerator;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compare {@link Part#from(String, String, String)} with the regex and exception based version it
+ * replaced, on a mix of part IDs like the ones in parts.csv.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PartIdBenchmark {
+
+    private static final int NUM_IDS = 50_000;
+    private static final Pattern PRINT_PATTERN = Pattern.compile("^(.+)(pr|pat)[a-z]?\\d+$");
+
+    private String[] ids;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        ids = new String[NUM_IDS];
+        for (int i = 0; i < NUM_IDS; i++) {
+            String id = Integer.toString(3000 + random.nextInt(90000));
+            switch (random.nextInt(6)) {
+            case 0 -> id += "b";
+            case 1 -> id += "c01";
+            case 2 -> id += String.format("pr%04d", random.nextInt(2000));
+            case 3 -> id += String.format("pat%04d", random.nextInt(200));
+            case 4 -> id += String.format("pats%02dpr%04d", random.nextInt(20), random.nextInt(2000));
+            default -> { }
+            }
+            ids[i] = id;
+        }
+    }
+
+    private static String legacyIdIgnoringPrint(String id) {
+        try {
+            Integer.parseInt(id);
+            return id;
+        } catch (NumberFormatException e) {
+        }
+
+        Matcher m = PRINT_PATTERN.matcher(id);
+        if (m.matches()) {
+            return legacyIdIgnoringPrint(m.group(1));
+        }
+        return id;
+    }
+
+    private static Part legacyFrom(String id, String description, String partCategoryId) {
+        String idIgnoringPrint = legacyIdIgnoringPrint(id);
+        Integer numericId = null;
+        try {
+            numericId = Integer.parseInt(idIgnoringPrint);
+        } catch (NumberFormatException e) {
+        }
+        return new Part(id, idIgnoringPrint, description, partCategoryId, numericId);
+    }
+
+    @Benchmark
+    public void legacyFrom(Blackhole blackhole) {
+        for (String id : ids) {
+            blackhole.consume(legacyFrom(id, "Brick", "11"));
+        }
+    }
+
+    @Benchmark
+    public void from(Blackhole blackhole) {
+        for (String id : ids) {
+            blackhole.consume(Part.from(id, "Brick", "11"));
+        }
+    }
+}
@@ -0,0 +1,323 @@
+/*
+Copyright 2024 mrpolyonymous
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package mrpolyonymous.labelgenerator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Differences between a {@link PartsCsvDatabase} and a newer version of the Rebrickable data files,
+ * so that a stored database can be brought up to date in place instead of being rebuilt.
+ * <p>
+ * Each data file is streamed once. Every table has a {@link RowHashes} index of the IDs and a hash of
+ * each row in the database, normally saved with it by {@link PartsCsvDatabaseSnapshot}. A line is
+ * tokenized, its ID looked up and its fields hashed without creating any objects, so objects are
+ * only made for rows that were added or modified. Rows whose IDs aren't seen are removed. Applying
+ * the changes only touches the rows that changed.
+ */
+class CatalogueChanges {
+
+    /**
+     * Changes to one table. Removed rows are the rows as they were in the database.
+     */
+    record TableChanges<T>(List<T> added, List<T> modified, List<T> removed) {
+        TableChanges() {
+            this(new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+        }
+
+        int size() {
+            return added.size() + modified.size() + removed.size();
+        }
+
+        @Override
+        public String toString() {
+            return added.size() + " added, " + modified.size() + " modified, " + removed.size() + " removed";
+        }
+    }
+
+    /**
+     * The IDs of the rows of a table in ID order, with a 64-bit hash of each row. The hash of a row
+     * is the same whether it is made from the stored row or from its tokenized line, so unchanged lines
+     * can be recognised without being turned into rows.
+     */
+    static final class RowHashes {
+        private final String[] ids;
+        private final long[] hashes;
+
+        /**
+         * @param ids row IDs in {@link String#compareTo(String)} order, without duplicates
+         */
+        RowHashes(String[] ids, long[] hashes) {
+            this.ids = ids;
+            this.hashes = hashes;
+        }
+
+        static <T> RowHashes of(Collection<T> rows, Function<T, String> idOf, ToLongFunction<T> rowHash) {
+            List<T> sortedRows = new ArrayList<>(rows);
+            sortedRows.sort(Comparator.comparing(idOf));
+            String[] ids = new String[sortedRows.size()];
+            long[] hashes = new long[sortedRows.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = idOf.apply(sortedRows.get(i));
+                hashes[i] = rowHash.applyAsLong(sortedRows.get(i));
+            }
+            return new RowHashes(ids, hashes);
+        }
+
+        int size() {
+            return ids.length;
+        }
+
+        String id(int index) {
+            return ids[index];
+        }
+
+        long hash(int index) {
+            return hashes[index];
+        }
+
+        /**
+         * Binary search for the row whose ID is in a field of a line
+         * @return the index of the row, or -1 if there is none
+         */
+        int indexOf(CsvTokenizer tokenizer, int field) {
+            int low = 0;
+            int high = ids.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int comparison = tokenizer.compareField(field, ids[mid]);
+                if (comparison > 0) {
+                    low = mid + 1;
+                } else if (comparison < 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /** Creates a row from a tokenized line */
+    @FunctionalInterface
+    private interface RowReader<T> {
+        T read(CsvTokenizer tokenizer);
+    }
+
+    private final PartsCsvDatabase partsDatabase;
+    private final RowHashes colourHashes;
+    private final RowHashes partCategoryHashes;
+    private final RowHashes partHashes;
+    private final RowHashes elementHashes;
+
+    final TableChanges<Colour> colours = new TableChanges<>();
+    final TableChanges<PartCategory> partCategories = new TableChanges<>();
+    final TableChanges<Part> parts = new TableChanges<>();
+    final TableChanges<Element> elements = new TableChanges<>();
+
+    /**
+     * Compare data files with a database, hashing all of its rows first. Use
+     * {@link PartsCsvDatabaseSnapshot#loadForUpdate()} to use the hashes saved with a snapshot instead.
+     * @param partsDatabase the database to compare data files with. Not changed until {@link #apply()}.
+     */
+    CatalogueChanges(PartsCsvDatabase partsDatabase) {
+        this(partsDatabase, colourHashes(partsDatabase), partCategoryHashes(partsDatabase), partHashes(partsDatabase),
+                elementHashes(partsDatabase));
+    }
+
+    /**
+     * @param partsDatabase the database to compare data files with. Not changed until {@link #apply()}.
+     */
+    CatalogueChanges(PartsCsvDatabase partsDatabase, RowHashes colourHashes, RowHashes partCategoryHashes,
+            RowHashes partHashes, RowHashes elementHashes) {
+        this.partsDatabase = partsDatabase;
+        this.colourHashes = colourHashes;
+        this.partCategoryHashes = partCategoryHashes;
+        this.partHashes = partHashes;
+        this.elementHashes = elementHashes;
+    }
+
+    PartsCsvDatabase partsDatabase() {
+        return partsDatabase;
+    }
+
+    // Rows are hashed from the same fields that are read from the data files, so equal rows have equal hashes
+
+    static RowHashes colourHashes(PartsCsvDatabase partsDatabase) {
+        return RowHashes.of(partsDatabase.getColours(), Colour::id, colour -> {
+            long hash = CsvTokenizer.hash64(CsvTokenizer.HASH64_SEED, colour.id());
+            hash = CsvTokenizer.hash64(hash, colour.description());
+            hash = CsvTokenizer.hash64(hash, colour.rgb());
+            return CsvTokenizer.hash64(hash, Boolean.toString(colour.transparent()));
+        });
+    }
+
+    private static long colourLineHash(CsvTokenizer tokenizer) {
+        long hash = tokenizer.fieldHash64(CsvTokenizer.HASH64_SEED, 0);
+        hash = tokenizer.fieldHash64(hash, 1);
+        hash = tokenizer.fieldHash64(hash, 2);
+        return CsvTokenizer.hash64(hash, Boolean.toString(tokenizer.getBoolean(3)));
+    }
+
+    static RowHashes partCategoryHashes(PartsCsvDatabase partsDatabase) {
+        return RowHashes.of(partsDatabase.getPartCategories(), PartCategory::id, category -> CsvTokenizer.hash64(
+                CsvTokenizer.hash64(CsvTokenizer.HASH64_SEED, category.id()), category.description()));
+    }
+
+    private static long partCategoryLineHash(CsvTokenizer tokenizer) {
+        return tokenizer.fieldHash64(tokenizer.fieldHash64(CsvTokenizer.HASH64_SEED, 0), 1);
+    }
+
+    static RowHashes partHashes(PartsCsvDatabase partsDatabase) {
+        // The other fields of a part are made from its ID
+        return RowHashes.of(partsDatabase.getParts(), Part::id, part -> {
+            long hash = CsvTokenizer.hash64(CsvTokenizer.HASH64_SEED, part.id());
+            hash = CsvTokenizer.hash64(hash, part.description());
+            return CsvTokenizer.hash64(hash, part.partCategoryId());
+        });
+    }
+
+    private static long partLineHash(CsvTokenizer tokenizer) {
+        // Part material isn't read, see PartsCsvDatabase.partFromRow
+        return tokenizer.fieldHash64(tokenizer.fieldHash64(tokenizer.fieldHash64(CsvTokenizer.HASH64_SEED, 0), 1), 2);
+    }
+
+    static RowHashes elementHashes(PartsCsvDatabase partsDatabase) {
+        return RowHashes.of(partsDatabase.getElements(), Element::id, element -> {
+            long hash = CsvTokenizer.hash64(CsvTokenizer.HASH64_SEED, element.id());
+            hash = CsvTokenizer.hash64(hash, element.partId());
+            hash = CsvTokenizer.hash64(hash, element.colourId());
+            return CsvTokenizer.hash64(hash, element.designId());
+        });
+    }
+
+    private static long elementLineHash(CsvTokenizer tokenizer) {
+        long hash = tokenizer.fieldHash64(CsvTokenizer.HASH64_SEED, 0);
+        hash = tokenizer.fieldHash64(hash, 1);
+        hash = tokenizer.fieldHash64(hash, 2);
+        return tokenizer.fieldHash64(hash, 3);
+    }
+
+    /**
+     * Compare CSV data in the format of colors.csv with the colours in the database. The reader is not closed.
+     */
+    void diffColours(BufferedReader br) throws IOException {
+        diff(br, 4, colourHashes, CatalogueChanges::colourLineHash, PartsCsvDatabase::colourFromRow,
+                partsDatabase::tryGetColourById, colours);
+    }
+
+    /**
+     * Compare CSV data in the format of part_categories.csv with the part categories in the database.
+     * The reader is not closed.
+     */
+    void diffPartCategories(BufferedReader br) throws IOException {
+        diff(br, 2, partCategoryHashes, CatalogueChanges::partCategoryLineHash,
+                tokenizer -> new PartCategory(tokenizer.getString(0), tokenizer.getString(1)),
+                partsDatabase::tryGetCategoryById, partCategories);
+    }
+
+    /**
+     * Compare CSV data in the format of parts.csv with the parts in the database. The reader is not closed.
+     */
+    void diffParts(BufferedReader br) throws IOException {
+        diff(br, 4, partHashes, CatalogueChanges::partLineHash, PartsCsvDatabase::partFromRow,
+                partsDatabase::tryGetPartById, parts);
+    }
+
+    /**
+     * Compare CSV data in the format of elements.csv with the elements in the database. The reader is not closed.
+     */
+    void diffElements(BufferedReader br) throws IOException {
+        diff(br, 4, elementHashes, CatalogueChanges::elementLineHash, PartsCsvDatabase::elementFromRow,
+                partsDatabase::tryGetElementById, elements);
+    }
+
+    /**
+     * @param rowHashes the IDs and row hashes of the table in the database. The ID is the first column.
+     * @param currentRows gets a row of the table in the database by ID, only used for removed rows
+     */
+    private static <T> void diff(BufferedReader br, int numColumns, RowHashes rowHashes,
+            ToLongFunction<CsvTokenizer> lineHash, RowReader<T> rowReader, Function<String, T> currentRows,
+            TableChanges<T> changes) throws IOException {
+        boolean[] seen = new boolean[rowHashes.size()];
+        CsvTokenizer tokenizer = new CsvTokenizer(numColumns);
+        String line = br.readLine();
+        // Skip header line
+        while ((line = br.readLine()) != null) {
+            if (line.isBlank()) {
+                continue;
+            }
+            tokenizer.reset(line);
+            int index = rowHashes.indexOf(tokenizer, 0);
+            if (index < 0) {
+                changes.added().add(rowReader.read(tokenizer));
+            } else {
+                seen[index] = true;
+                if (rowHashes.hash(index) != lineHash.applyAsLong(tokenizer)) {
+                    changes.modified().add(rowReader.read(tokenizer));
+                }
+            }
+        }
+
+        for (int i = 0; i < seen.length; i++) {
+            if (!seen[i]) {
+                T currentRow = currentRows.apply(rowHashes.id(i));
+                if (currentRow != null) {
+                    changes.removed().add(currentRow);
+                }
+            }
+        }
+    }
+
+    /**
+     * Total number of changed rows in all tables
+     */
+    int size() {
+        return colours.size() + partCategories.size() + parts.size() + elements.size();
+    }
+
+    /**
+     * Apply the changes to the database
+     */
+    void apply() {
+        colours.removed().forEach(colour -> partsDatabase.removeColour(colour.id()));
+        partCategories.removed().forEach(category -> partsDatabase.removePartCategory(category.id()));
+        parts.removed().forEach(part -> partsDatabase.removePart(part.id()));
+        elements.removed().forEach(element -> partsDatabase.removeElement(element.id()));
+
+        // Adding a row with an existing ID replaces it
+        colours.added().forEach(partsDatabase::addColour);
+        colours.modified().forEach(partsDatabase::addColour);
+        partCategories.added().forEach(partsDatabase::addPartCategory);
+        partCategories.modified().forEach(partsDatabase::addPartCategory);
+        parts.added().forEach(partsDatabase::addPart);
+        parts.modified().forEach(partsDatabase::addPart);
+        elements.added().forEach(partsDatabase::addElement);
+        elements.modified().forEach(partsDatabase::addElement);
+    }
+
+    @Override
+    public String toString() {
+        return "colours: " + colours + "; part categories: " + partCategories + "; parts: " + parts
+                + "; elements: " + elements;
+    }
+}
@@ -0,0 +1,222 @@
+/*
+Copyright 2024 mrpolyonymous
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package mrpolyonymous.labelgenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import mrpolyonymous.labelgenerator.PartsCsvDatabaseSnapshot.SnapshotReader;
+import mrpolyonymous.labelgenerator.PartsCsvDatabaseSnapshot.SnapshotWriter;
+
+/**
+ * Dated copies of the parts database, so that a parts collection can be compared with any earlier
+ * version of the Rebrickable catalogue by {@link PartsDiff} without keeping old data files.
+ * <p>
+ * Each table is stored in the binary format of {@link PartsCsvDatabaseSnapshot}, compressed, in a
+ * file named after the SHA-256 hash of its contents. A dated manifest lists the table files that
+ * make up the catalogue on that date. Tables that haven't changed since the previous save are
+ * shared rather than stored again, and most days only the elements table changes.
+ */
+class CatalogueHistory {
+
+    private static final String[] TABLES = { "colours", "part_categories", "parts", "elements" };
+    private static final String MANIFEST_SUFFIX = ".catalogue";
+
+    /**
+     * Version of the table formats written to the manifest. Unlike the snapshot, history is kept, so
+     * this only changes when a table format changes, and older versions must still be readable.
+     */
+    static final int FORMAT_VERSION = 1;
+
+    private final File historyFolder;
+    private final File tablesFolder;
+
+    CatalogueHistory(File historyFolder) {
+        this.historyFolder = historyFolder;
+        this.tablesFolder = new File(historyFolder, "tables");
+    }
+
+    /**
+     * Save the database as the catalogue for a date, replacing any catalogue already saved for that date.
+     * Tables are written in ID order, so a table with the same rows is always stored once however
+     * the database was loaded.
+     * @param date the date of the data files the database was read from
+     */
+    void save(PartsCsvDatabase partsDatabase, LocalDate date) throws IOException {
+        if (!tablesFolder.isDirectory() && !tablesFolder.mkdirs()) {
+            throw new IOException("Could not create directory " + tablesFolder);
+        }
+
+        StringBuilder manifest = new StringBuilder();
+        manifest.append("version ").append(FORMAT_VERSION).append('\n');
+        int newTables = 0;
+        for (String table : TABLES) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                SnapshotWriter writer = new SnapshotWriter(out);
+                switch (table) {
+                case "colours" -> PartsCsvDatabaseSnapshot.writeColours(writer, partsDatabase);
+                case "part_categories" -> PartsCsvDatabaseSnapshot.writePartCategories(writer, partsDatabase);
+                case "parts" -> PartsCsvDatabaseSnapshot.writeParts(writer, partsDatabase);
+                default -> PartsCsvDatabaseSnapshot.writeElements(writer, partsDatabase);
+                }
+            }
+            byte[] tableBytes = bytes.toByteArray();
+            String hash = HexFormat.of().formatHex(sha256(tableBytes));
+            File tableFile = tableFile(hash);
+            if (!tableFile.exists()) {
+                writeAtomically(tableFile, os -> {
+                    try (OutputStream gzip = new GZIPOutputStream(os, 64 * 1024)) {
+                        gzip.write(tableBytes);
+                    }
+                });
+                newTables++;
+            }
+            manifest.append(table).append(' ').append(hash).append('\n');
+        }
+
+        File manifestFile = new File(historyFolder, date + MANIFEST_SUFFIX);
+        byte[] manifestBytes = manifest.toString().getBytes(StandardCharsets.UTF_8);
+        writeAtomically(manifestFile, os -> os.write(manifestBytes));
+        System.out.println("Saved catalogue for " + date + ", " + newTables + " new tables");
+    }
+
+    /**
+     * Dates that have a saved catalogue, oldest first
+     */
+    List<LocalDate> dates() {
+        List<LocalDate> dates = new ArrayList<>();
+        String[] names = historyFolder.list();
+        if (names == null) {
+            return dates;
+        }
+        for (String name : names) {
+            if (name.endsWith(MANIFEST_SUFFIX)) {
+                try {
+                    dates.add(LocalDate.parse(name.substring(0, name.length() - MANIFEST_SUFFIX.length())));
+                } catch (DateTimeParseException e) {
+                    // Not one of ours
+                }
+            }
+        }
+        dates.sort(null);
+        return dates;
+    }
+
+    /**
+     * Load the catalogue as it was on a date, which is the latest one saved on or before that date
+     * @return the database, or null if there is no catalogue that old
+     */
+    PartsCsvDatabase load(LocalDate date) throws IOException {
+        LocalDate savedDate = null;
+        for (LocalDate d : dates()) {
+            if (!d.isAfter(date)) {
+                savedDate = d;
+            }
+        }
+        if (savedDate == null) {
+            return null;
+        }
+
+        List<String> manifest = Files.readAllLines(new File(historyFolder, savedDate + MANIFEST_SUFFIX).toPath(),
+                StandardCharsets.UTF_8);
+        int version = manifestVersion(manifest.get(0));
+        if (version < 1 || version > FORMAT_VERSION) {
+            throw new IOException("Catalogue for " + savedDate + " was saved by a different version: " + manifest.get(0));
+        }
+        PartsCsvDatabase partsDatabase = new PartsCsvDatabase();
+        for (String line : manifest.subList(1, manifest.size())) {
+            String[] tableAndHash = line.split(" ");
+            SnapshotReader reader = new SnapshotReader(ByteBuffer.wrap(readTable(tableAndHash[1])));
+            switch (tableAndHash[0]) {
+            case "colours" -> PartsCsvDatabaseSnapshot.readColours(reader, partsDatabase);
+            case "part_categories" -> PartsCsvDatabaseSnapshot.readPartCategories(reader, partsDatabase);
+            case "parts" -> PartsCsvDatabaseSnapshot.readParts(reader, partsDatabase);
+            case "elements" -> PartsCsvDatabaseSnapshot.readElements(reader, partsDatabase, PartIdFilter.ALL);
+            default -> throw new IOException("Unknown table " + tableAndHash[0] + " in catalogue for " + savedDate);
+            }
+        }
+        return partsDatabase;
+    }
+
+    private static int manifestVersion(String firstLine) {
+        if (!firstLine.startsWith("version ")) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(firstLine.substring("version ".length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private byte[] readTable(String hash) throws IOException {
+        try (InputStream is = new GZIPInputStream(Files.newInputStream(tableFile(hash).toPath()), 64 * 1024)) {
+            byte[] tableBytes = is.readAllBytes();
+            if (!HexFormat.of().formatHex(sha256(tableBytes)).equals(hash)) {
+                throw new IOException("Catalogue table " + hash + " is corrupt");
+            }
+            return tableBytes;
+        }
+    }
+
+    private File tableFile(String hash) {
+        return new File(tablesFolder, hash + ".gz");
+    }
+
+    private static byte[] sha256(byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /** Writes the contents of a file */
+    @FunctionalInterface
+    private interface ContentWriter {
+        void write(OutputStream os) throws IOException;
+    }
+
+    /**
+     * Write to a temporary file and rename it, so that a file is never seen half written
+     */
+    private static void writeAtomically(File file, ContentWriter contentWriter) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (OutputStream os = new FileOutputStream(tempFile)) {
+            contentWriter.write(os);
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+Copyright 2024 mrpolyonymous
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package mrpolyonymous.labelgenerator;
+
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds the current parts database so that a newly loaded one can replace it while other threads are
+ * using it. Only frozen databases are held, see {@link PartsCsvDatabase#freeze()}, so readers never
+ * need a lock. A thread that calls {@link #get()} keeps using the database it got even if it is
+ * replaced, so a long running task should call it once and use the result throughout.
+ */
+public final class CatalogueReference {
+
+    private final AtomicReference<PartsCsvDatabase> current;
+
+    public CatalogueReference(PartsCsvDatabase partsDatabase) {
+        current = new AtomicReference<>(requireFrozen(partsDatabase));
+    }
+
+    /**
+     * Get the current database
+     */
+    public PartsCsvDatabase get() {
+        return current.get();
+    }
+
+    /**
+     * Replace the current database
+     * @return the database that was replaced
+     */
+    public PartsCsvDatabase swap(PartsCsvDatabase partsDatabase) {
+        return current.getAndSet(requireFrozen(partsDatabase));
+    }
+
+    /**
+     * Load a database on another thread and replace the current database with it when it is loaded.
+     * The current database is used until then. If loading fails the current database is kept, and the
+     * returned future completes with the exception.
+     * @param loader loads the new database, for example by calling
+     *  {@link PartsCsvDatabaseCreator#readRebrickablePartsDataCached(Fetcher)}
+     * @return the new database once it has replaced the current one
+     */
+    public CompletableFuture<PartsCsvDatabase> reloadAsync(Callable<PartsCsvDatabase> loader) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return loader.call();
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }).thenApply(partsDatabase -> {
+            PartsCsvDatabase frozen = partsDatabase.freeze();
+            swap(frozen);
+            return frozen;
+        });
+    }
+
+    private static PartsCsvDatabase requireFrozen(PartsCsvDatabase partsDatabase) {
+        Objects.requireNonNull(partsDatabase, "partsDatabase");
+        if (!partsDatabase.isFrozen()) {
+            throw new IllegalArgumentException("Parts database must be frozen before it is shared");
+        }
+        return partsDatabase;
+    }
+}
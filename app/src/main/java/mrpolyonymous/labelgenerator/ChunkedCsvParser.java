@@ -0,0 +1,153 @@
+/*
+Copyright 2024 mrpolyonymous
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package mrpolyonymous.labelgenerator;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Supplier;
+
+/**
+ * Parses a large CSV file on several cores. The file is memory mapped, or decompressed into memory by
+ * the caller, and split into chunks at line boundaries, then each chunk is tokenized as UTF-8 bytes on
+ * the common fork-join pool.
+ * Each chunk collects its rows into its own result object, and the results are returned in file order
+ * so the caller can merge them without any locking.
+ * <p>
+ * Like the rest of the CSV handling in this project, quoted fields must not contain line breaks.
+ */
+final class ChunkedCsvParser {
+
+    /** Chunks smaller than this aren't worth the overhead of a separate task */
+    private static final int MIN_CHUNK_SIZE = 1024 * 1024;
+
+    /** Handles one row of a chunk, adding whatever it needs to the chunk's result */
+    @FunctionalInterface
+    interface RowHandler<T> {
+        void row(T chunkResult, CsvTokenizer tokenizer);
+    }
+
+    private ChunkedCsvParser() {
+    }
+
+    /**
+     * Memory map a CSV file for {@link #parse(ByteBuffer, int, Supplier, RowHandler)}
+     */
+    static ByteBuffer map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize > Integer.MAX_VALUE) {
+                throw new IOException("File " + file + " is too large to map, size=" + fileSize);
+            }
+            // The mapping stays valid after the channel is closed
+            return channel.map(MapMode.READ_ONLY, 0, fileSize);
+        }
+    }
+
+    /**
+     * Parse all rows of a CSV file after its header line.
+     * @param numColumns expected number of columns in every row
+     * @param newChunkResult creates the result object for a chunk
+     * @param rowHandler called for each non-blank row with the tokenized line
+     * @return the result of each chunk, in the order the chunks appear in the file
+     */
+    static <T> List<T> parse(File file, int numColumns, Supplier<T> newChunkResult, RowHandler<T> rowHandler)
+            throws IOException {
+        return parse(map(file), numColumns, newChunkResult, rowHandler);
+    }
+
+    /**
+     * Parse all rows of CSV data after its header line. The whole buffer from position 0 to its limit
+     * is parsed.
+     * @see #parse(File, int, Supplier, RowHandler)
+     */
+    static <T> List<T> parse(ByteBuffer buffer, int numColumns, Supplier<T> newChunkResult,
+            RowHandler<T> rowHandler) {
+        int size = buffer.limit();
+        int dataStart = nextLineStart(buffer, 0, size);
+        int numChunks = Math.max(1, Math.min(4 * ForkJoinPool.getCommonPoolParallelism(),
+                (size - dataStart) / MIN_CHUNK_SIZE));
+
+        List<ForkJoinTask<T>> tasks = new ArrayList<>(numChunks);
+        int chunkStart = dataStart;
+        for (int i = 1; i <= numChunks; i++) {
+            int chunkEnd = size;
+            if (i < numChunks) {
+                int nominalEnd = dataStart + (int) ((long) (size - dataStart) * i / numChunks);
+                chunkEnd = nextLineStart(buffer, Math.max(chunkStart, nominalEnd), size);
+            }
+            int start = chunkStart;
+            int end = chunkEnd;
+            tasks.add(ForkJoinPool.commonPool().submit(() -> parseChunk(buffer, start, end, numColumns,
+                    newChunkResult.get(), rowHandler)));
+            chunkStart = chunkEnd;
+        }
+
+        List<T> results = new ArrayList<>(numChunks);
+        for (ForkJoinTask<T> task : tasks) {
+            results.add(task.join());
+        }
+        return results;
+    }
+
+    private static <T> T parseChunk(ByteBuffer buffer, int start, int end, int numColumns,
+            T chunkResult, RowHandler<T> rowHandler) {
+        CsvTokenizer tokenizer = new CsvTokenizer(numColumns);
+        int lineStart = start;
+        while (lineStart < end) {
+            int lineEnd = lineStart;
+            while (lineEnd < end && buffer.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            int nextLineStart = lineEnd + 1;
+            if (lineEnd > lineStart && buffer.get(lineEnd - 1) == '\r') {
+                lineEnd--;
+            }
+            if (!isBlank(buffer, lineStart, lineEnd)) {
+                tokenizer.reset(buffer, lineStart, lineEnd);
+                rowHandler.row(chunkResult, tokenizer);
+            }
+            lineStart = nextLineStart;
+        }
+        return chunkResult;
+    }
+
+    /**
+     * Find the position just after the next line break at or after {@code position}
+     */
+    private static int nextLineStart(ByteBuffer buffer, int position, int size) {
+        while (position < size && buffer.get(position) != '\n') {
+            position++;
+        }
+        return Math.min(position + 1, size);
+    }
+
+    private static boolean isBlank(ByteBuffer buffer, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (buffer.get(i) > ' ' || buffer.get(i) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -17,6 +17,8 @@ package mrpolyonymous.labelgenerator;
 
 /**
  * A colour definition read from Rebrickable data
+ * @param rgb the colour as 6 hex digits, without a leading #
+ * @param transparent true for the Trans- colours
  */
-public record Colour(String id, String description) {
+public record Colour(String id, String description, String rgb, boolean transparent) {
 }
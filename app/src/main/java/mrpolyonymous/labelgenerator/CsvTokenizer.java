@@ -0,0 +1,354 @@
+/*
+Copyright 2024 mrpolyonymous
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package mrpolyonymous.labelgenerator;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reusable tokenizer for lines of CSV data. This is a replacement for {@link Utils#splitCsv(String, int)}
+ * for the big Rebrickable data files, where creating a String for every column of every row adds up.
+ * <p>
+ * Resetting the tokenizer with a line only records where each field starts and ends. Fields are
+ * turned into Strings or numbers on request, so columns that aren't needed are never allocated.
+ * Lines can be given either as characters or as UTF-8 bytes; since quotes and commas are ASCII
+ * they can't appear inside a multi-byte UTF-8 sequence, so splitting works the same on bytes.
+ * <p>
+ * Quote handling matches {@link Utils#splitCsv(String, int)}: quote characters toggle whether
+ * commas are treated as separators and are otherwise dropped from the field value.
+ * <p>
+ * Not thread safe, each thread needs its own instance.
+ */
+final class CsvTokenizer {
+
+    /** Starting value for {@link #hash64(long, String)} and {@link #fieldHash64(long, int)} */
+    static final long HASH64_SEED = 0xCBF29CE484222325L;
+    private static final long HASH64_PRIME = 0x100000001B3L;
+
+    private final int numColumns;
+    private final int[] fieldStarts;
+    private final int[] fieldEnds;
+    /** Whether a field contains quote characters which have to be removed */
+    private final boolean[] fieldQuoted;
+
+    /** Current line when tokenizing characters, otherwise null */
+    private CharSequence chars;
+    /** Current line when tokenizing bytes, otherwise null */
+    private ByteBuffer bytes;
+    private int lineStart;
+    private int lineEnd;
+
+    /** Scratch space for building fields that need quotes removed */
+    private final StringBuilder unquoteBuilder;
+    private byte[] unquoteBytes;
+
+    CsvTokenizer(int numColumns) {
+        this.numColumns = numColumns;
+        fieldStarts = new int[numColumns];
+        fieldEnds = new int[numColumns];
+        fieldQuoted = new boolean[numColumns];
+        unquoteBuilder = new StringBuilder();
+        unquoteBytes = new byte[64];
+    }
+
+    int numColumns() {
+        return numColumns;
+    }
+
+    /**
+     * Split a line of text into fields.
+     * @throws RuntimeException if the line doesn't have the expected number of columns
+     */
+    void reset(CharSequence line) {
+        chars = line;
+        bytes = null;
+
+        int numFields = 0;
+        int fieldStart = 0;
+        boolean inQuote = false;
+        boolean quoted = false;
+        int length = line.length();
+        for (int i = 0; i < length; i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                inQuote = !inQuote;
+                quoted = true;
+            } else if (c == ',' && !inQuote) {
+                numFields = endField(numFields, fieldStart, i, quoted);
+                fieldStart = i + 1;
+                quoted = false;
+            }
+        }
+        numFields = endField(numFields, fieldStart, length, quoted);
+        checkNumFields(numFields);
+    }
+
+    /**
+     * Split a line of UTF-8 encoded text into fields. The line runs from {@code start} up to but
+     * not including {@code end}, which should exclude the line terminator. The buffer's position and
+     * limit are not used or changed, and the buffer must not be modified until the tokenizer is reset.
+     * @throws RuntimeException if the line doesn't have the expected number of columns
+     */
+    void reset(ByteBuffer buffer, int start, int end) {
+        chars = null;
+        bytes = buffer;
+        lineStart = start;
+        lineEnd = end;
+
+        int numFields = 0;
+        int fieldStart = start;
+        boolean inQuote = false;
+        boolean quoted = false;
+        for (int i = start; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b == '"') {
+                inQuote = !inQuote;
+                quoted = true;
+            } else if (b == ',' && !inQuote) {
+                numFields = endField(numFields, fieldStart, i, quoted);
+                fieldStart = i + 1;
+                quoted = false;
+            }
+        }
+        numFields = endField(numFields, fieldStart, end, quoted);
+        checkNumFields(numFields);
+    }
+
+    private int endField(int numFields, int start, int end, boolean quoted) {
+        if (numFields < numColumns) {
+            fieldStarts[numFields] = start;
+            fieldEnds[numFields] = end;
+            fieldQuoted[numFields] = quoted;
+        }
+        return numFields + 1;
+    }
+
+    private void checkNumFields(int numFields) {
+        if (numFields != numColumns) {
+            throw new RuntimeException("Failed to parse " + numColumns + " columns from: " + lineAsString());
+        }
+    }
+
+    private String lineAsString() {
+        if (chars != null) {
+            return chars.toString();
+        }
+        byte[] lineBytes = new byte[lineEnd - lineStart];
+        bytes.get(lineStart, lineBytes);
+        return new String(lineBytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Number of characters, or bytes when tokenizing bytes, in the raw field, including any quotes
+     */
+    int rawLength(int field) {
+        return fieldEnds[field] - fieldStarts[field];
+    }
+
+    boolean isEmpty(int field) {
+        return fieldEnds[field] == fieldStarts[field];
+    }
+
+    /**
+     * Get a field as a String. This allocates, so only use it for fields that are kept.
+     */
+    String getString(int field) {
+        int start = fieldStarts[field];
+        int end = fieldEnds[field];
+        if (start == end) {
+            return "";
+        }
+        if (chars != null) {
+            if (!fieldQuoted[field]) {
+                return chars.subSequence(start, end).toString();
+            }
+            unquoteBuilder.setLength(0);
+            for (int i = start; i < end; i++) {
+                char c = chars.charAt(i);
+                if (c != '"') {
+                    unquoteBuilder.append(c);
+                }
+            }
+            return unquoteBuilder.toString();
+        }
+
+        if (unquoteBytes.length < end - start) {
+            unquoteBytes = new byte[Math.max(end - start, 2 * unquoteBytes.length)];
+        }
+        int length = 0;
+        if (!fieldQuoted[field]) {
+            bytes.get(start, unquoteBytes, 0, end - start);
+            length = end - start;
+        } else {
+            for (int i = start; i < end; i++) {
+                byte b = bytes.get(i);
+                if (b != '"') {
+                    unquoteBytes[length++] = b;
+                }
+            }
+        }
+        return new String(unquoteBytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Parse a field as an int with the same rules as {@link Integer#parseInt(String)}, without
+     * creating a String for it.
+     */
+    int getInt(int field) {
+        int start = fieldStarts[field];
+        int end = fieldEnds[field];
+        if (fieldQuoted[field] || start == end) {
+            return Integer.parseInt(getString(field));
+        }
+
+        boolean negative = false;
+        int i = start;
+        char first = charAt(i);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            i++;
+            if (i == end) {
+                throw new NumberFormatException("For input string: \"" + getString(field) + "\"");
+            }
+        }
+        // Accumulate negatively, as Integer.parseInt does, so that MIN_VALUE can be parsed
+        int limit = negative ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+        int result = 0;
+        for (; i < end; i++) {
+            int digit = charAt(i) - '0';
+            if (digit < 0 || digit > 9 || result < limit / 10) {
+                throw new NumberFormatException("For input string: \"" + getString(field) + "\"");
+            }
+            result *= 10;
+            if (result < limit + digit) {
+                throw new NumberFormatException("For input string: \"" + getString(field) + "\"");
+            }
+            result -= digit;
+        }
+        return negative ? result : -result;
+    }
+
+    /**
+     * Parse a boolean field. Booleans have been written as t/f and as True/False in different dumps.
+     */
+    boolean getBoolean(int field) {
+        return fieldEquals(field, "t") || fieldEquals(field, "True") || fieldEquals(field, "true");
+    }
+
+    /**
+     * Check if a field is equal to a String, without creating a String for the field
+     */
+    boolean fieldEquals(int field, String s) {
+        if (fieldQuoted[field] || !isAsciiField(field)) {
+            return getString(field).equals(s);
+        }
+        int start = fieldStarts[field];
+        int length = fieldEnds[field] - start;
+        if (length != s.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (charAt(start + i) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hash code of a field, identical to {@code getString(field).hashCode()} but without creating a String
+     */
+    int fieldHashCode(int field) {
+        if (fieldQuoted[field] || !isAsciiField(field)) {
+            return getString(field).hashCode();
+        }
+        int hash = 0;
+        for (int i = fieldStarts[field], end = fieldEnds[field]; i < end; i++) {
+            hash = 31 * hash + charAt(i);
+        }
+        return hash;
+    }
+
+    /**
+     * Compare a field with a String in the same order as {@link String#compareTo(String)}, without
+     * creating a String for the field
+     */
+    int compareField(int field, String s) {
+        if (fieldQuoted[field] || !isAsciiField(field)) {
+            return getString(field).compareTo(s);
+        }
+        int start = fieldStarts[field];
+        int length = fieldEnds[field] - start;
+        int commonLength = Math.min(length, s.length());
+        for (int i = 0; i < commonLength; i++) {
+            int diff = charAt(start + i) - s.charAt(i);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return length - s.length();
+    }
+
+    /**
+     * Add the characters of a String to a 64-bit FNV-1a hash, followed by a separator so that
+     * consecutive fields can't run into each other
+     * @param hash {@link #HASH64_SEED} or the result of hashing the previous field
+     */
+    static long hash64(long hash, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            hash = (hash ^ s.charAt(i)) * HASH64_PRIME;
+        }
+        // Not a char value, so it can't be confused with one
+        return (hash ^ 0x10000) * HASH64_PRIME;
+    }
+
+    /**
+     * Add a field to a 64-bit hash, identical to {@code hash64(hash, getString(field))} but without
+     * creating a String
+     */
+    long fieldHash64(long hash, int field) {
+        if (fieldQuoted[field] || !isAsciiField(field)) {
+            return hash64(hash, getString(field));
+        }
+        for (int i = fieldStarts[field], end = fieldEnds[field]; i < end; i++) {
+            hash = (hash ^ charAt(i)) * HASH64_PRIME;
+        }
+        return (hash ^ 0x10000) * HASH64_PRIME;
+    }
+
+    /**
+     * Characters can always be compared directly. Bytes can only be compared when they are all
+     * ASCII, otherwise they need to be decoded first.
+     */
+    private boolean isAsciiField(int field) {
+        if (chars != null) {
+            return true;
+        }
+        for (int i = fieldStarts[field], end = fieldEnds[field]; i < end; i++) {
+            if (bytes.get(i) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private char charAt(int index) {
+        if (chars != null) {
+            return chars.charAt(index);
+        }
+        return (char) bytes.get(index);
+    }
+}
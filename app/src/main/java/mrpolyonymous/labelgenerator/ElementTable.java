@@ -0,0 +1,293 @@
+/*
+Copyright 2024 mrpolyonymous
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package mrpolyonymous.labelgenerator;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Column-oriented storage for the elements read from Rebrickable data, which is the biggest
+ * table in the database.
+ * <p>
+ * Each element is a row, and each column is a primitive array. Element IDs, part IDs, colour IDs
+ * and design IDs are stored once each in symbol tables and rows hold their int codes. The number of
+ * elements for each part is an int array indexed by part code. {@link Element} objects are only
+ * created when a row is requested.
+ * <p>
+ * Several elements can have the same part and colour. Lookups by part and colour use an array of
+ * all rows sorted by part and colour code, so the rows for each part and colour are a contiguous
+ * range found by binary search. Within a range rows are in the order they were added. The sorted
+ * array is rebuilt on the first lookup after rows are added.
+ * <p>
+ * Removed elements are marked as deleted and keep their row, so that the rows of other elements don't
+ * change. An element that is added again gets its old row back.
+ * <p>
+ * The table of colour IDs is shared with the colours table of the database. Rows must not be added
+ * or removed at the same time as other calls, but lookups can be done from several threads.
+ */
+final class ElementTable {
+
+    /** Element IDs, where the code of each element ID is its row */
+    private final SymbolTable elementIds;
+    /** IDs of parts referenced by elements. Not the same codes as any other table of parts. */
+    private final SymbolTable partIds;
+    private final SymbolTable colourIds;
+    private final SymbolTable designIds;
+
+    private int[] partCodes;
+    private int[] colourCodes;
+    private int[] designCodes;
+
+    /** Number of rows for each part code */
+    private int[] elementCountsByPart;
+
+    /** Rows of elements that have been removed */
+    private final BitSet deletedRows = new BitSet();
+
+    /** All rows, sorted by part code then colour code then row, or null if rows were added since it was built */
+    private volatile int[] rowsByPartColour;
+
+    ElementTable(SymbolTable colourIds) {
+        this.colourIds = colourIds;
+        int capacity = 1024;
+        elementIds = new SymbolTable(capacity);
+        partIds = new SymbolTable(capacity);
+        designIds = new SymbolTable(capacity);
+        partCodes = new int[capacity];
+        colourCodes = new int[capacity];
+        designCodes = new int[capacity];
+        elementCountsByPart = new int[capacity];
+    }
+
+    /**
+     * Number of elements, not counting removed ones
+     */
+    int size() {
+        return elementIds.size() - deletedRows.cardinality();
+    }
+
+    /**
+     * Number of rows, including the rows of removed elements
+     */
+    int numRows() {
+        return elementIds.size();
+    }
+
+    /**
+     * Get the first row at or after {@code row} that isn't removed, or -1 if there is none
+     */
+    int nextRow(int row) {
+        int next = deletedRows.nextClearBit(row);
+        return next < numRows() ? next : -1;
+    }
+
+    /**
+     * Add an element row, read from the fields element_id,part_num,color_id,design_id. Only creates
+     * Strings for IDs that have not been seen before.
+     */
+    void add(CsvTokenizer tokenizer) {
+        int numRowsBefore = numRows();
+        int row = elementIds.intern(tokenizer, 0);
+        add(row, row < numRowsBefore, partIds.intern(tokenizer, 1), colourIds.intern(tokenizer, 2),
+                designIds.intern(tokenizer, 3));
+    }
+
+    void add(Element element) {
+        int numRowsBefore = numRows();
+        int row = elementIds.intern(element.id());
+        add(row, row < numRowsBefore, partIds.intern(element.partId()), colourIds.intern(element.colourId()),
+                designIds.intern(element.designId()));
+    }
+
+    /**
+     * Add or replace a row
+     * @param seenBefore whether the element ID already had a row before this add
+     */
+    private void add(int row, boolean seenBefore, int partCode, int colourCode, int designCode) {
+        if (seenBefore) {
+            // Element ID seen before, so this replaces an existing or removed row
+            if (deletedRows.get(row)) {
+                deletedRows.clear(row);
+            } else {
+                elementCountsByPart[partCodes[row]]--;
+            }
+        } else if (row == partCodes.length) {
+            int capacity = 2 * row;
+            partCodes = Arrays.copyOf(partCodes, capacity);
+            colourCodes = Arrays.copyOf(colourCodes, capacity);
+            designCodes = Arrays.copyOf(designCodes, capacity);
+        }
+        partCodes[row] = partCode;
+        colourCodes[row] = colourCode;
+        designCodes[row] = designCode;
+        rowsByPartColour = null;
+
+        if (partCode >= elementCountsByPart.length) {
+            elementCountsByPart = Arrays.copyOf(elementCountsByPart, Math.max(partCode + 1,
+                    2 * elementCountsByPart.length));
+        }
+        elementCountsByPart[partCode]++;
+    }
+
+    /**
+     * Remove an element
+     * @return true if the element was found
+     */
+    boolean remove(String elementId) {
+        int row = findRow(elementId);
+        if (row < 0) {
+            return false;
+        }
+        deletedRows.set(row);
+        elementCountsByPart[partCodes[row]]--;
+        rowsByPartColour = null;
+        return true;
+    }
+
+    /**
+     * Create the element for a row
+     */
+    Element get(int row) {
+        return new Element(elementIds.get(row), partIds.get(partCodes[row]), colourIds.get(colourCodes[row]),
+                designIds.get(designCodes[row]));
+    }
+
+    /**
+     * Find the row of an element ID, or -1 if not found
+     */
+    int findRow(String elementId) {
+        int row = elementIds.find(elementId);
+        return row < 0 || deletedRows.get(row) ? -1 : row;
+    }
+
+    /**
+     * Find the rows of all elements with a part and colour ID, in the order they were added
+     */
+    int[] findRows(String partId, String colourId) {
+        int partCode = partIds.find(partId);
+        int colourCode = colourIds.find(colourId);
+        if (partCode < 0 || colourCode < 0) {
+            return new int[0];
+        }
+        int[] sortedRows = getRowsByPartColour();
+        int start = firstIndexNotBefore(sortedRows, partCode, colourCode);
+        return Arrays.copyOfRange(sortedRows, start, rangeEnd(sortedRows, start, partCode, colourCode));
+    }
+
+    /**
+     * Find the row of the element added last with a part and colour ID, or -1 if not found
+     */
+    int findRow(String partId, String colourId) {
+        int partCode = partIds.find(partId);
+        int colourCode = colourIds.find(colourId);
+        if (partCode < 0 || colourCode < 0) {
+            return -1;
+        }
+        int[] sortedRows = getRowsByPartColour();
+        int start = firstIndexNotBefore(sortedRows, partCode, colourCode);
+        int end = rangeEnd(sortedRows, start, partCode, colourCode);
+        return end == start ? -1 : sortedRows[end - 1];
+    }
+
+    private int rangeEnd(int[] sortedRows, int start, int partCode, int colourCode) {
+        int end = start;
+        while (end < sortedRows.length && partCodes[sortedRows[end]] == partCode
+                && colourCodes[sortedRows[end]] == colourCode) {
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * Binary search for the first position in the sorted rows whose part and colour codes are not
+     * before the given ones
+     */
+    private int firstIndexNotBefore(int[] sortedRows, int partCode, int colourCode) {
+        int low = 0;
+        int high = sortedRows.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int row = sortedRows[mid];
+            if (partCodes[row] < partCode || (partCodes[row] == partCode && colourCodes[row] < colourCode)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Build the lookup structures now rather than on first use, for a table that won't change again
+     */
+    void buildIndexes() {
+        getRowsByPartColour();
+    }
+
+    private int[] getRowsByPartColour() {
+        int[] sortedRows = rowsByPartColour;
+        if (sortedRows == null) {
+            synchronized (this) {
+                sortedRows = rowsByPartColour;
+                if (sortedRows == null) {
+                    sortedRows = sortRowsByPartColour();
+                    rowsByPartColour = sortedRows;
+                }
+            }
+        }
+        return sortedRows;
+    }
+
+    /**
+     * Sort rows by part code and colour code with two stable counting sort passes, so that rows
+     * with the same part and colour stay in row order
+     */
+    private int[] sortRowsByPartColour() {
+        int[] rows = new int[size()];
+        int numRows = 0;
+        for (int row = nextRow(0); row >= 0; row = nextRow(row + 1)) {
+            rows[numRows++] = row;
+        }
+        int[] byColour = countingSort(rows, colourCodes, colourIds.size());
+        return countingSort(byColour, partCodes, partIds.size());
+    }
+
+    private static int[] countingSort(int[] rows, int[] codes, int numCodes) {
+        int[] starts = new int[numCodes + 1];
+        for (int row : rows) {
+            starts[codes[row] + 1]++;
+        }
+        for (int code = 0; code < numCodes; code++) {
+            starts[code + 1] += starts[code];
+        }
+        int[] sorted = new int[rows.length];
+        for (int row : rows) {
+            sorted[starts[codes[row]]++] = row;
+        }
+        return sorted;
+    }
+
+    /**
+     * Number of elements that reference a part
+     */
+    int elementCount(String partId) {
+        int partCode = partIds.find(partId);
+        if (partCode < 0) {
+            return 0;
+        }
+        return elementCountsByPart[partCode];
+    }
+}
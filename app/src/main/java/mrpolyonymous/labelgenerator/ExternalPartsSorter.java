@@ -0,0 +1,379 @@
+/*
+Copyright 2024 mrpolyonymous
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package mrpolyonymous.labelgenerator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts parts list rows that may not fit in memory, for parts lists with millions of rows. Rows are
+ * collected until there are {@code maxRowsInMemory} of them, then sorted and written to a temporary
+ * run file. Iterating merges the run files, so only one row per run file is in memory at a time.
+ * If there are more than {@code maxFanIn} run files, groups of them are first merged into longer
+ * runs until there are few enough, so that the number of open files and their buffers stay bounded
+ * however many rows there are.
+ * <p>
+ * Iteration gives the same rows in the same order as {@link MyParts#sort()} followed by iterating
+ * over the {@link MyParts}: parts in {@link PartOrder}, each colour of a part once with its total
+ * quantity, and colours in the order they were first added. Only the colours of one part at a time
+ * are held while adding up quantities.
+ * <p>
+ * Run files are deleted by {@link #close()}. Not thread safe.
+ */
+final class ExternalPartsSorter implements Iterable<PartColourQuantity>, AutoCloseable {
+
+    /** Merge order of rows: by sort key, then by part, then in the order they were added */
+    private static final Comparator<RunReader> MERGE_ORDER = Comparator
+            .comparingLong((RunReader run) -> run.sortKey)
+            .thenComparing(run -> run.part, PartOrder.COMPARATOR)
+            .thenComparingLong(run -> run.sequence);
+
+    /** Most run files merged at once */
+    static final int DEFAULT_MAX_FAN_IN = 64;
+
+    private final PartsCsvDatabase partsDatabase;
+    private final int maxFanIn;
+    private final File tempFolder;
+    private final List<File> runFiles = new ArrayList<>();
+    /** Run files open for iteration, so they can be closed if iteration stops early */
+    private final List<RunReader> openRuns = new ArrayList<>();
+
+    // Rows not yet written to a run file
+    private final Part[] parts;
+    private final Colour[] colours;
+    private final int[] quantities;
+    private final long[] sortKeys;
+    private int numBufferedRows;
+    /** Number of rows added, which gives each row its sequence number */
+    private long numRows;
+    /** Number of rows when the last summary was printed */
+    private long numRowsReported;
+    private int numRunsWritten;
+    private int numMergePasses;
+
+    /**
+     * @param tempFolder folder for run files, or null for the default temporary folder
+     */
+    ExternalPartsSorter(PartsCsvDatabase partsDatabase, int maxRowsInMemory, File tempFolder) {
+        this(partsDatabase, maxRowsInMemory, DEFAULT_MAX_FAN_IN, tempFolder);
+    }
+
+    /**
+     * @param maxFanIn most run files to merge at once, at least 2
+     * @param tempFolder folder for run files, or null for the default temporary folder
+     */
+    ExternalPartsSorter(PartsCsvDatabase partsDatabase, int maxRowsInMemory, int maxFanIn, File tempFolder) {
+        if (maxRowsInMemory < 1) {
+            throw new IllegalArgumentException("Invalid number of rows " + maxRowsInMemory);
+        }
+        if (maxFanIn < 2) {
+            throw new IllegalArgumentException("Invalid fan-in " + maxFanIn);
+        }
+        this.partsDatabase = partsDatabase;
+        this.maxFanIn = maxFanIn;
+        this.tempFolder = tempFolder;
+        parts = new Part[maxRowsInMemory];
+        colours = new Colour[maxRowsInMemory];
+        quantities = new int[maxRowsInMemory];
+        sortKeys = new long[maxRowsInMemory];
+    }
+
+    /**
+     * Read a data file in the same format as {@link MyParts#readMyParts(File)} without keeping all of it
+     * in memory
+     */
+    void readMyParts(File dataFile) throws IOException {
+        MyParts.readRows(partsDatabase, dataFile, this::add);
+    }
+
+    void addAll(Iterable<PartColourQuantity> partColourQuantities) throws IOException {
+        for (PartColourQuantity pcq : partColourQuantities) {
+            add(pcq.part(), pcq.colour(), pcq.quantity());
+        }
+    }
+
+    void add(Part part, Colour colour, int quantity) throws IOException {
+        if (numBufferedRows == parts.length) {
+            writeRun();
+        }
+        parts[numBufferedRows] = part;
+        colours[numBufferedRows] = colour;
+        quantities[numBufferedRows] = quantity;
+        sortKeys[numBufferedRows] = PartOrder.sortKey(part);
+        numBufferedRows++;
+        numRows++;
+    }
+
+    /**
+     * Number of rows added, counting duplicates
+     */
+    long numRows() {
+        return numRows;
+    }
+
+    int numRunFiles() {
+        return runFiles.size();
+    }
+
+    /**
+     * Sort the buffered rows and write them to a new run file
+     */
+    private void writeRun() throws IOException {
+        if (numBufferedRows == 0) {
+            return;
+        }
+        int[] sorted = PartOrder.sortedIndexes(sortKeys, parts, numBufferedRows);
+        long firstSequence = numRows - numBufferedRows;
+        File runFile = newRunFile();
+        runFiles.add(runFile);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(runFile)))) {
+            for (int index : sorted) {
+                writeRow(out, sortKeys[index], firstSequence + index, parts[index], colours[index], quantities[index]);
+            }
+        }
+        // Let the rows be garbage collected
+        Arrays.fill(parts, 0, numBufferedRows, null);
+        Arrays.fill(colours, 0, numBufferedRows, null);
+        numBufferedRows = 0;
+        numRunsWritten++;
+    }
+
+    /**
+     * Merge groups of run files into longer runs until there are at most {@code maxFanIn} of them
+     */
+    private void mergeRuns() throws IOException {
+        while (runFiles.size() > maxFanIn) {
+            List<File> passRuns = new ArrayList<>(runFiles);
+            // runFiles always lists every run file on disk, so close() deletes them even if a merge fails
+            runFiles.clear();
+            for (int start = 0; start < passRuns.size(); start += maxFanIn) {
+                List<File> group = passRuns.subList(start, Math.min(start + maxFanIn, passRuns.size()));
+                if (group.size() == 1) {
+                    runFiles.add(group.get(0));
+                    continue;
+                }
+                try {
+                    runFiles.add(mergeGroup(group));
+                } catch (IOException e) {
+                    runFiles.addAll(passRuns.subList(start, passRuns.size()));
+                    throw e;
+                }
+            }
+            numMergePasses++;
+        }
+    }
+
+    /**
+     * Merge run files into a new run file and delete them
+     */
+    private File mergeGroup(List<File> group) throws IOException {
+        File mergedRun = newRunFile();
+        List<RunReader> groupRuns = new ArrayList<>(group.size());
+        PriorityQueue<RunReader> queue = new PriorityQueue<>(group.size(), MERGE_ORDER);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mergedRun)))) {
+            for (File runFile : group) {
+                RunReader run = new RunReader(runFile);
+                groupRuns.add(run);
+                if (run.advance()) {
+                    queue.add(run);
+                }
+            }
+            while (!queue.isEmpty()) {
+                RunReader run = queue.poll();
+                writeRow(out, run.sortKey, run.sequence, run.part, run.colour, run.quantity);
+                if (run.advance()) {
+                    queue.add(run);
+                }
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(mergedRun.toPath());
+            throw e;
+        } finally {
+            for (RunReader run : groupRuns) {
+                run.close();
+            }
+        }
+        for (File runFile : group) {
+            Files.deleteIfExists(runFile.toPath());
+        }
+        return mergedRun;
+    }
+
+    private File newRunFile() throws IOException {
+        return File.createTempFile("parts-run-", ".bin", tempFolder);
+    }
+
+    private static void writeRow(DataOutputStream out, long sortKey, long sequence, Part part, Colour colour,
+            int quantity) throws IOException {
+        out.writeLong(sortKey);
+        out.writeLong(sequence);
+        out.writeUTF(part.id());
+        out.writeUTF(colour.id());
+        out.writeInt(quantity);
+    }
+
+    /**
+     * Merge the sorted runs. Any rows not yet written to a run file are written first. Can be called
+     * more than once, and each iterator reads the run files again.
+     * @throws UncheckedIOException if a run file can't be written or read
+     */
+    @Override
+    public Iterator<PartColourQuantity> iterator() {
+        try {
+            writeRun();
+            mergeRuns();
+            if (numRows != numRowsReported) {
+                System.out.println("Sorted " + numRows + " parts list rows on disk in " + numRunsWritten + " runs, "
+                        + numMergePasses + " merge passes, merging " + runFiles.size() + " runs");
+                numRowsReported = numRows;
+            }
+            PriorityQueue<RunReader> queue = new PriorityQueue<>(Math.max(1, runFiles.size()), MERGE_ORDER);
+            for (File runFile : runFiles) {
+                RunReader run = new RunReader(runFile);
+                openRuns.add(run);
+                if (run.advance()) {
+                    queue.add(run);
+                }
+            }
+            return new MergeIterator(queue);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (RunReader run : openRuns) {
+            run.close();
+        }
+        openRuns.clear();
+        for (File runFile : runFiles) {
+            if (!runFile.delete()) {
+                System.err.println("Could not delete " + runFile);
+            }
+        }
+        runFiles.clear();
+    }
+
+    /**
+     * Takes rows from the run files in merge order and adds up the quantity of each colour of a part
+     */
+    private class MergeIterator implements Iterator<PartColourQuantity> {
+        private final PriorityQueue<RunReader> queue;
+        /** Colours of the last part taken from the runs, with their total quantities */
+        private final ArrayDeque<PartColourQuantity> pending = new ArrayDeque<>();
+
+        MergeIterator(PriorityQueue<RunReader> queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (pending.isEmpty() && !queue.isEmpty()) {
+                takeNextPart();
+            }
+            return !pending.isEmpty();
+        }
+
+        @Override
+        public PartColourQuantity next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return pending.removeFirst();
+        }
+
+        private void takeNextPart() {
+            Part part = queue.peek().part;
+            Map<Colour, Integer> quantitiesByColour = new LinkedHashMap<>();
+            while (!queue.isEmpty() && queue.peek().part.id().equals(part.id())) {
+                RunReader run = queue.poll();
+                quantitiesByColour.merge(run.colour, run.quantity, Integer::sum);
+                try {
+                    if (run.advance()) {
+                        queue.add(run);
+                    } else {
+                        run.close();
+                        openRuns.remove(run);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            for (Map.Entry<Colour, Integer> entry : quantitiesByColour.entrySet()) {
+                pending.add(new PartColourQuantity(part, entry.getKey(), entry.getValue()));
+            }
+        }
+    }
+
+    /**
+     * Reads the rows of one run file, one at a time
+     */
+    private class RunReader {
+        private final DataInputStream in;
+
+        // The current row
+        long sortKey;
+        long sequence;
+        Part part;
+        Colour colour;
+        int quantity;
+
+        RunReader(File runFile) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(runFile)));
+        }
+
+        /**
+         * Read the next row
+         * @return false if there are no more rows
+         */
+        boolean advance() throws IOException {
+            try {
+                sortKey = in.readLong();
+            } catch (EOFException e) {
+                return false;
+            }
+            sequence = in.readLong();
+            part = partsDatabase.getPartById(in.readUTF());
+            colour = partsDatabase.getColourById(in.readUTF());
+            quantity = in.readInt();
+            return true;
+        }
+
+        void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -62,6 +62,11 @@ public class Fetcher implements AutoCloseable {
                     FileOutputStream os = new FileOutputStream(destinationFile)) {
                 is.transferTo(os);
             }
+            // Date the file by when it was published, e.g. for the date of a catalogue dump
+            long lastModified = urlConnection.getLastModified();
+            if (lastModified > 0) {
+                destinationFile.setLastModified(lastModified);
+            }
             return destinationFile;
         }
     }
@@ -17,13 +17,43 @@ package mrpolyonymous.labelgenerator;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import mrpolyonymous.rebrickableapi.ApiClient;
+import mrpolyonymous.rebrickableapi.UserPartsSync;
 
 public class LabelMain {
 
+    /** System property for the number of parts list rows to sort in memory before sorting on disk */
+    static final String MAX_ROWS_PROPERTY = "labelgenerator.maxRowsInMemory";
+
+    /**
+     * System property to extract the downloaded data files and keep the extracted copies, so that the
+     * big ones are memory mapped instead of being decompressed again on every run
+     */
+    static final String EXTRACT_CSV_PROPERTY = "labelgenerator.extractCsv";
+
+    /** Parts file argument for the parts of a Rebrickable user, fetched through the API */
+    private static final String USER_PARTS_ARG = "allparts";
+    private static final String USER_PARTS_FOLDER_NAME = "allparts";
+    /** How long a sync of the user's parts is used before syncing again */
+    private static final Duration USER_PARTS_MAX_AGE = Duration.ofHours(12);
+
     public static void main(String[] args) throws IOException {
         
         if (args.length < 2) {
-            System.out.println("Usage: " + LabelMain.class.getName() + " <data_dir> <parts_file> [<grid_output_name>]");
+            System.out.println("Usage: " + LabelMain.class.getName() + " <data_dir> <parts_file>... [<grid_output_name>.html]");
+            System.out.println("       " + LabelMain.class.getName() + " <data_dir> <parts_file> <grid_output_name>");
+            System.out.println("  <parts_file> is a Rebrickable parts list CSV file, or a .txt file of set numbers, one per line");
+            System.out.println("  <parts_file> can also be " + USER_PARTS_ARG + " for all parts of the Rebrickable user whose token is in REBRICKABLE_USER_TOKEN");
+            System.out.println("  Parts from all files are combined into one grid");
+            System.out.println("  Set -D" + EXTRACT_CSV_PROPERTY + "=true to keep extracted copies of the Rebrickable data files, saving decompressing them on each run");
+            System.out.println("  Set -D" + MAX_ROWS_PROPERTY + "=<rows> to sort large parts lists on disk, keeping at most <rows> rows in memory");
             return;
         }
         
@@ -38,36 +68,114 @@ public class LabelMain {
             }
         }
         
-        File partsFile = new File(args[1]);
-        if (!partsFile.exists() || !partsFile.isFile()) {
-            System.err.println("Could not find parts file " + partsFile);
-            return;
+        // The last argument is the output file if it is a .html file. With exactly one parts file the
+        // output file can have any name that isn't itself a parts file, as it always could.
+        int numPartsFiles = args.length - 1;
+        File outputFile = null;
+        String lastArg = args[args.length - 1];
+        if (args.length > 2 && (lastArg.endsWith(".html")
+                || (args.length == 3 && !isPartsFileName(lastArg)))) {
+            outputFile = new File(lastArg);
+            numPartsFiles--;
         }
-        
-        File outputFile;
-        if (args.length > 2) {
-            outputFile = new File(args[2]);
-        } else {
+
+        List<File> partsListFiles = new ArrayList<>();
+        List<File> setListFiles = new ArrayList<>();
+        boolean syncUserParts = false;
+        for (int i = 1; i <= numPartsFiles; i++) {
+            if (args[i].equals(USER_PARTS_ARG)) {
+                syncUserParts = true;
+                continue;
+            }
+            File partsFile = new File(args[i]);
+            if (!partsFile.exists() || !partsFile.isFile()) {
+                System.err.println("Could not find parts file " + partsFile);
+                return;
+            }
+            if (partsFile.getName().endsWith(".txt")) {
+                setListFiles.add(partsFile);
+            } else {
+                partsListFiles.add(partsFile);
+            }
+        }
+
+        if (syncUserParts) {
+            String userToken = System.getenv("REBRICKABLE_USER_TOKEN");
+            if (userToken == null) {
+                System.err.println("Environment variable REBRICKABLE_USER_TOKEN must be set to sync " + USER_PARTS_ARG);
+                return;
+            }
+            UserPartsSync userPartsSync = new UserPartsSync(new File(dataDir, USER_PARTS_FOLDER_NAME), new ApiClient(),
+                    userToken, USER_PARTS_MAX_AGE);
+            try {
+                userPartsSync.sync(partsListFiles::add);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                System.err.println("Interrupted while syncing " + USER_PARTS_ARG);
+                return;
+            }
+        }
+
+        if (outputFile == null) {
+            File partsFile = args[1].equals(USER_PARTS_ARG) ? new File(dataDir, USER_PARTS_ARG + ".csv") : new File(args[1]);
             String outputFileName = partsFile.getName();
-            outputFileName = outputFileName.replace(".csv", "") + "-grid.html";
+            outputFileName = outputFileName.replace(".csv", "").replace(".txt", "") + "-grid.html";
             outputFile = new File(partsFile.getParent(), outputFileName);
         }
 
         try (Fetcher fetcher = new Fetcher()) {
 
-            PartsCsvDatabaseCreator dbCreator = new PartsCsvDatabaseCreator(dataDir);
-            PartsCsvDatabase partsDatabase = dbCreator.readRebrickablePartsData(fetcher);
-
-            MyParts myParts = new MyParts(partsDatabase);
-            myParts.readMyParts(partsFile);
-
-            PartsToImageMapper uniqueifier = new PartsToImageMapper(dataDir, partsDatabase, fetcher);
+            PartsCsvDatabaseCreator dbCreator = new PartsCsvDatabaseCreator(dataDir, Boolean.getBoolean(EXTRACT_CSV_PROPERTY));
+            // Only the elements of parts in the collection are needed
+            Set<String> partIds = new HashSet<>();
+            List<SetInventories.InventoryPart> inventoryParts = List.of();
+            if (!setListFiles.isEmpty()) {
+                List<String> setNums = new ArrayList<>();
+                for (File setListFile : setListFiles) {
+                    Files.readAllLines(setListFile.toPath()).stream()
+                            .filter(line -> !line.isBlank())
+                            .forEach(setNums::add);
+                }
+                inventoryParts = dbCreator.readSetInventoryParts(fetcher, setNums);
+                inventoryParts.forEach(inventoryPart -> partIds.add(inventoryPart.partId()));
+            }
+            if (!partsListFiles.isEmpty()) {
+                partIds.addAll(MyParts.readPartIds(partsListFiles));
+            }
+            PartsCsvDatabase partsDatabase = dbCreator.readRebrickablePartsDataCached(fetcher, partIds);
 
-            PartsToImages results = uniqueifier.mapPartsToImages(myParts);
+            PartRelationships relationships = dbCreator.readPartRelationships(fetcher);
+            PartsToImages results;
+            try (PartsToImageMapper uniqueifier = new PartsToImageMapper(dataDir, partsDatabase, relationships,
+                    fetcher)) {
+                Integer maxRowsInMemory = Integer.getInteger(MAX_ROWS_PROPERTY);
+                if (maxRowsInMemory == null) {
+                    MyParts myParts = partsListFiles.isEmpty()
+                            ? new MyParts(partsDatabase)
+                            : MyParts.readMyParts(partsDatabase, partsListFiles);
+                    myParts.addInventoryParts(inventoryParts);
+                    results = uniqueifier.mapPartsToImages(myParts);
+                } else {
+                    try (ExternalPartsSorter sorter = new ExternalPartsSorter(partsDatabase, maxRowsInMemory, null)) {
+                        for (File partsListFile : partsListFiles) {
+                            sorter.readMyParts(partsListFile);
+                        }
+                        MyParts setParts = new MyParts(partsDatabase);
+                        setParts.addInventoryParts(inventoryParts);
+                        sorter.addAll(setParts);
+                        System.out.println("Sorting " + sorter.numRows() + " rows on disk");
+                        results = uniqueifier.mapSortedPartsToImages(sorter);
+                    }
+                }
+            }
 
             OutputGenerator outputGenerator = new OutputGenerator(partsDatabase);
             outputGenerator.savePartsGrid(outputFile, results);
         }
     }
 
+    private static boolean isPartsFileName(String arg) {
+        return arg.endsWith(".csv") || arg.endsWith(".txt") || arg.equals(USER_PARTS_ARG);
+    }
+
 }
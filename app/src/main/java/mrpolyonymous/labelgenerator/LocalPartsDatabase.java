@@ -41,6 +41,7 @@ import com.fasterxml.jackson.databind.SerializationFeature;
 import mrpolyonymous.rebrickableapi.ApiColour;
 import mrpolyonymous.rebrickableapi.ApiElement;
 import mrpolyonymous.rebrickableapi.ApiPart;
+import mrpolyonymous.rebrickableapi.CatalogueDataSource;
 
 /**
  * A local database of parts, made by downloading data from the Rebrickable API.
@@ -186,6 +187,33 @@ public class LocalPartsDatabase {
         return true;
     }
 
+    /**
+     * Add parts that aren't in the database yet, with their image URLs. The part details come from
+     * the local catalogue and only the image URLs are fetched from the API, in batches.
+     * @return number of parts added
+     */
+    public int addMissingParts(Collection<Part> parts, CatalogueDataSource dataSource)
+            throws IOException, InterruptedException {
+        List<Part> missingParts = new ArrayList<>();
+        for (Part part : parts) {
+            if (!hasPart(part)) {
+                missingParts.add(part);
+            }
+        }
+        if (missingParts.isEmpty()) {
+            return 0;
+        }
+        int numAdded = 0;
+        for (ApiPart apiPart : dataSource.getPartsWithImages(missingParts)) {
+            if (addPart(apiPart)) {
+                numAdded++;
+            }
+        }
+        System.out.println("Added " + numAdded + " parts to local parts database, "
+                + dataSource.getNumApiCalls() + " API calls so far");
+        return numAdded;
+    }
+
     public Collection<ApiPart> getParts() {
         return partInfos.values();
     }
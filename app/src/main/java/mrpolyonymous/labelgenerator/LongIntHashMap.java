@@ -0,0 +1,133 @@
+/*
+Copyright 2024 mrpolyonymous
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package mrpolyonymous.labelgenerator;
+
+import java.util.Arrays;
+
+/**
+ * Hash map from long to int using open addressing with linear probing, so that no objects are
+ * created per entry. Entries can't be removed. Meant for keys made by packing two int indexes together, see {@link #pack(int, int)}.
+ * <p>
+ * {@link Long#MIN_VALUE} marks empty slots and can't be used as a key. Not thread safe.
+ */
+final class LongIntHashMap {
+
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final int MIN_TABLE_SIZE = 16;
+
+    private long[] keys;
+    private int[] values;
+    private int size;
+
+    LongIntHashMap() {
+        this(MIN_TABLE_SIZE / 2);
+    }
+
+    LongIntHashMap(int expectedSize) {
+        // Keep the table at most half full
+        int tableSize = Integer.highestOneBit(Math.max(MIN_TABLE_SIZE, expectedSize * 2) - 1) * 2;
+        keys = new long[tableSize];
+        Arrays.fill(keys, EMPTY);
+        values = new int[tableSize];
+    }
+
+    /**
+     * Pack two non-negative ints into a key
+     */
+    static long pack(int high, int low) {
+        return ((long) high << 32) | (low & 0xFFFFFFFFL);
+    }
+
+    private int slotFor(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & (keys.length - 1);
+    }
+
+    private int findSlot(long key) {
+        int mask = keys.length - 1;
+        int slot = slotFor(key);
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Get the value for a key, or {@code defaultValue} if there is none
+     */
+    int get(long key, int defaultValue) {
+        int slot = findSlot(key);
+        return keys[slot] == key ? values[slot] : defaultValue;
+    }
+
+    /**
+     * Set the value for a key
+     * @return the previous value, or {@code defaultValue} if there was none
+     */
+    int put(long key, int value, int defaultValue) {
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("Invalid key " + key);
+        }
+        int slot = findSlot(key);
+        if (keys[slot] == key) {
+            int previous = values[slot];
+            values[slot] = value;
+            return previous;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Add to the value for a key, treating a missing value as 0
+     * @return the new value
+     */
+    int addTo(long key, int delta) {
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("Invalid key " + key);
+        }
+        int slot = findSlot(key);
+        if (keys[slot] == key) {
+            values[slot] += delta;
+            return values[slot];
+        }
+        keys[slot] = key;
+        values[slot] = delta;
+        if (++size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        return delta;
+    }
+
+    private void rehash(int tableSize) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[tableSize];
+        Arrays.fill(keys, EMPTY);
+        values = new int[tableSize];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = findSlot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
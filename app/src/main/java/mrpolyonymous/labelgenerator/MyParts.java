@@ -17,133 +17,365 @@ package mrpolyonymous.labelgenerator;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Parts downloaded from Rebrickable and matched to their corresponding part, colour and quantity
+ * <p>
+ * A parts list can have the same part and colour on several lines, as Rebrickable does not enforce
+ * uniqueness, so quantities are added up as lines are added. Part and colour IDs are given int codes,
+ * and each distinct part and colour is found with a hash map keyed by both codes packed into a long.
+ * Its part, colour, element and total quantity are kept in arrays indexed by the order it was first
+ * seen, so adding a line doesn't create any objects once the part and colour are known.
  */
 public class MyParts implements Iterable<PartColourQuantity> {
 
-    /**
-     * Entries read and parsed from CSV file. It is possible for there to be duplicates, Rebrickable
-     * does not enforce uniqueness.
-     */
-    private final List<PartColourQuantity> allParts;
-
     static record PartDetails(Part part, Colour colour, Element element, int quantity) {
     }
 
-    private final Map<String, List<PartDetails>> partsMap;
-
     private final PartsCsvDatabase partsDatabase;
 
+    private final SymbolTable partIds = new SymbolTable(1024);
+    private final SymbolTable colourIds = new SymbolTable(256);
+    /** Index into the arrays below of each part and colour, keyed by packed part and colour codes */
+    private final LongIntHashMap indexesByPartColour = new LongIntHashMap(8000);
+
+    // One entry for each distinct part and colour
+    private int[] partCodes = new int[1024];
+    private Part[] parts = new Part[1024];
+    private Colour[] colours = new Colour[1024];
+    private Element[] elements = new Element[1024];
+    private int[] quantities = new int[1024];
+    private int size;
+
+    // Indexed by part code
+    private Part[] partsByCode = new Part[1024];
+    /** {@link PartOrder#sortKey(Part)} of each part */
+    private long[] sortKeysByCode = new long[1024];
+    /** Number of colours of each part */
+    private int[] colourCountsByPart = new int[1024];
+
+    /** Indexes in the order to iterate, which is the order first seen until {@link #sort()} is called */
+    private int[] order = new int[1024];
+
+    /** View of the parts by part ID, built when asked for and dropped when parts are added */
+    private Map<String, List<PartDetails>> partsMap;
+
     public MyParts(PartsCsvDatabase partsDatabase) {
         this.partsDatabase = partsDatabase;
+    }
 
-        allParts = new ArrayList<>(8000);
-        partsMap = new HashMap<>(8000);
+    /** Receives the rows of a parts list data file */
+    @FunctionalInterface
+    interface RowConsumer {
+        void accept(Part part, Colour colour, int quantity) throws IOException;
     }
 
     /**
      * Read data file downloaded from rebrickable My LEGO->All My Parts->Export Parts->Rebrickable CSV
      */
     public void readMyParts(File dataFile) throws IOException {
-        try (BufferedReader br = new BufferedReader(new FileReader(dataFile))) {
+        readRows(partsDatabase, dataFile, this::add);
+    }
+
+    /**
+     * Read a data file in the same format as {@link #readMyParts(File)} and pass each row to a consumer
+     * without keeping it
+     */
+    static void readRows(PartsCsvDatabase partsDatabase, File dataFile, RowConsumer rowConsumer) throws IOException {
+        try (BufferedReader br = Files.newBufferedReader(dataFile.toPath(), StandardCharsets.UTF_8)) {
+            CsvTokenizer tokenizer = new CsvTokenizer(3);
             String line = br.readLine();
             // skip header  Part,Color,Quantity
             while ((line = br.readLine()) != null) {
-                PartColourQuantity newPart = PartColourQuantity.fromLine(line, partsDatabase);
-                add(newPart);
+                tokenizer.reset(line);
+                Part part;
+                Colour colour;
+                int quantity;
+                try {
+                    part = partsDatabase.getPartById(tokenizer.getString(0));
+                    colour = partsDatabase.getColourById(tokenizer.getString(1));
+                    quantity = tokenizer.getInt(2);
+                } catch (RuntimeException e) {
+                    System.err.println("Error making part ID=" + tokenizer.getString(0) + " colour ID="
+                            + tokenizer.getString(1) + " qty=" + tokenizer.getString(2));
+                    throw e;
+                }
+                rowConsumer.accept(part, colour, quantity);
             }
         }
+    }
 
-//        sort();
+    /**
+     * Read several data files in the same format as {@link #readMyParts(File)} at the same time, and
+     * add up the quantities of each part and colour across all of them. Parts are in the order of the
+     * files they were first seen in.
+     */
+    public static MyParts readMyParts(PartsCsvDatabase partsDatabase, List<File> dataFiles) throws IOException {
+        List<MyParts> partsPerFile = readInParallel(dataFiles, dataFile -> {
+            MyParts fileParts = new MyParts(partsDatabase);
+            fileParts.readMyParts(dataFile);
+            return fileParts;
+        });
+        MyParts merged = new MyParts(partsDatabase);
+        for (MyParts fileParts : partsPerFile) {
+            merged.addAll(fileParts);
+        }
+        return merged;
     }
 
-    private static final Comparator<PartColourQuantity> SORTER = (p1, p2) -> {
+    /**
+     * Read the part IDs from several data files at the same time, see {@link #readPartIds(File)}
+     */
+    public static Set<String> readPartIds(List<File> dataFiles) throws IOException {
+        Set<String> partIds = new HashSet<>();
+        for (Set<String> filePartIds : readInParallel(dataFiles, MyParts::readPartIds)) {
+            partIds.addAll(filePartIds);
+        }
+        return partIds;
+    }
+
+    /** Reads one data file */
+    @FunctionalInterface
+    private interface DataFileReader<T> {
+        T read(File dataFile) throws IOException;
+    }
 
-        int partIdComp;
-        if (p1.part().numericId() != null && p2.part().numericId() != null) {
-            partIdComp = p1.part().numericId().compareTo(p2.part().numericId());
-        } else {
-            partIdComp = p1.part().idIgnoringPrint().compareTo(p2.part().idIgnoringPrint());
+    private static <T> List<T> readInParallel(List<File> dataFiles, DataFileReader<T> reader) throws IOException {
+        if (dataFiles.size() == 1) {
+            return List.of(reader.read(dataFiles.get(0)));
         }
-        if (partIdComp != 0) {
-            return partIdComp;
+        int numThreads = Math.min(dataFiles.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService readService = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<CompletableFuture<T>> reads = new ArrayList<>(dataFiles.size());
+            for (File dataFile : dataFiles) {
+                reads.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return reader.read(dataFile);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                }, readService));
+            }
+            List<T> results = new ArrayList<>(dataFiles.size());
+            for (CompletableFuture<T> read : reads) {
+                results.add(read.join());
+            }
+            return results;
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException ioEx) {
+                throw ioEx;
+            }
+            throw e;
+        } finally {
+            readService.shutdown();
         }
-        return p1.part().id().compareTo(p2.part().id());
-    };
+    }
 
+    /**
+     * Add all the parts of another parts list, adding up quantities of the same part and colour.
+     * Elements already found for the other list are copied rather than looked up again.
+     */
+    void addAll(MyParts other) {
+        for (int otherIndex = 0; otherIndex < other.size; otherIndex++) {
+            int index = addQuantity(other.parts[otherIndex], other.colours[otherIndex], other.quantities[otherIndex]);
+            if (index >= 0) {
+                elements[index] = other.elements[otherIndex];
+            }
+        }
+    }
+
+    /**
+     * Add the parts found in set inventories. Parts or colours that aren't in the parts database are
+     * reported and skipped.
+     */
+    void addInventoryParts(List<SetInventories.InventoryPart> inventoryParts) {
+        int skipped = 0;
+        for (SetInventories.InventoryPart inventoryPart : inventoryParts) {
+            Part part = partsDatabase.tryGetPartById(inventoryPart.partId());
+            Colour colour = partsDatabase.tryGetColourById(inventoryPart.colourId());
+            if (part == null || colour == null) {
+                System.err.println("Skipping unknown part ID=" + inventoryPart.partId() + " colour ID="
+                        + inventoryPart.colourId());
+                skipped++;
+                continue;
+            }
+            add(part, colour, inventoryPart.quantity());
+        }
+        if (skipped > 0) {
+            System.err.println("Skipped " + skipped + " inventory parts");
+        }
+    }
+
+    /**
+     * Read only the part IDs from a data file in the same format as {@link #readMyParts(File)}. Doesn't
+     * need a parts database, so it can be used to decide what to load into one.
+     */
+    public static Set<String> readPartIds(File dataFile) throws IOException {
+        Set<String> partIds = new HashSet<>();
+        try (BufferedReader br = Files.newBufferedReader(dataFile.toPath(), StandardCharsets.UTF_8)) {
+            CsvTokenizer tokenizer = new CsvTokenizer(3);
+            String line = br.readLine();
+            // skip header  Part,Color,Quantity
+            while ((line = br.readLine()) != null) {
+                tokenizer.reset(line);
+                partIds.add(tokenizer.getString(0));
+            }
+        }
+        return partIds;
+    }
+
+    /**
+     * Number of distinct part and colour combinations
+     */
     public int size() {
-        return allParts.size();
+        return size;
     }
 
+    /**
+     * Iterate over each distinct part and colour with its total quantity
+     */
     @Override
     public Iterator<PartColourQuantity> iterator() {
-        return Collections.unmodifiableList(allParts).iterator();
-    }
+        return new Iterator<>() {
+            private int next;
 
-    void add(PartColourQuantity pcq) {
-        allParts.add(pcq);
-
-        List<PartDetails> details = partsMap.computeIfAbsent(pcq.part().id(), k -> new ArrayList<>());
-
-        boolean added = false;
-        // Look for duplicate entries, and if found combine the quantities
-        if (!details.isEmpty()) {
-            Iterator<PartDetails> it = details.iterator();
-            while (it.hasNext()) {
-                PartDetails partDetails = it.next();
-                if (partDetails.colour().equals(pcq.colour())) {
-                    // duplicate entry, add together quantities.
-                    it.remove();
-                    details.add(new PartDetails(partDetails.part(), partDetails.colour(),
-                            partDetails.element(),
-                            partDetails.quantity() + pcq.quantity()));
-                    added = true;
-                    break;
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public PartColourQuantity next() {
+                if (next >= size) {
+                    throw new NoSuchElementException();
                 }
+                int index = order[next++];
+                return new PartColourQuantity(parts[index], colours[index], quantities[index]);
             }
+        };
+    }
+
+    void add(PartColourQuantity pcq) {
+        add(pcq.part(), pcq.colour(), pcq.quantity());
+    }
+
+    /**
+     * Add a quantity of a part in a colour, adding to the quantity already there if the part and colour
+     * have been added before
+     */
+    void add(Part part, Colour colour, int quantity) {
+        int index = addQuantity(part, colour, quantity);
+        if (index >= 0) {
+            elements[index] = partsDatabase.tryGetElementByPartColourId(part.id(), colour.id(),
+                    PartsCsvDatabase.NEWEST_ELEMENT_LAST);
         }
+    }
 
-        if (!added) {
-            // No duplicate found
-            details.add(new PartDetails(pcq.part(),
-                    pcq.colour(),
-                    partsDatabase.tryGetElementByPartColourId(pcq.part().id(), pcq.colour().id()),
-                    pcq.quantity()));
+    /**
+     * Add a quantity of a part in a colour without finding its element
+     * @return index of the part and colour if it is new, so the caller can set its element, or -1 if it
+     *         was already there
+     */
+    private int addQuantity(Part part, Colour colour, int quantity) {
+        int partCode = partIds.intern(part.id());
+        int colourCode = colourIds.intern(colour.id());
+        long key = LongIntHashMap.pack(partCode, colourCode);
+        int index = indexesByPartColour.get(key, -1);
+        if (index >= 0) {
+            // duplicate entry, add together quantities
+            quantities[index] += quantity;
+            partsMap = null;
+            return -1;
         }
+
+        index = size++;
+        if (index == parts.length) {
+            int capacity = 2 * index;
+            partCodes = Arrays.copyOf(partCodes, capacity);
+            parts = Arrays.copyOf(parts, capacity);
+            colours = Arrays.copyOf(colours, capacity);
+            elements = Arrays.copyOf(elements, capacity);
+            quantities = Arrays.copyOf(quantities, capacity);
+            order = Arrays.copyOf(order, capacity);
+        }
+        if (partCode == partsByCode.length) {
+            partsByCode = Arrays.copyOf(partsByCode, 2 * partCode);
+            sortKeysByCode = Arrays.copyOf(sortKeysByCode, 2 * partCode);
+            colourCountsByPart = Arrays.copyOf(colourCountsByPart, 2 * partCode);
+        }
+        if (partsByCode[partCode] == null) {
+            partsByCode[partCode] = part;
+            sortKeysByCode[partCode] = PartOrder.sortKey(part);
+        }
+        indexesByPartColour.put(key, index, -1);
+        partCodes[index] = partCode;
+        parts[index] = part;
+        colours[index] = colour;
+        quantities[index] = quantity;
+        order[index] = index;
+        colourCountsByPart[partCode]++;
+        partsMap = null;
+        return index;
     }
 
+    /**
+     * Sort parts into {@link PartOrder}, with the colours of each part in the order they were first seen
+     */
     public void sort() {
-        allParts.sort(SORTER);
+        long[] sortKeys = new long[size];
+        for (int index = 0; index < size; index++) {
+            sortKeys[index] = sortKeysByCode[partCodes[index]];
+        }
+        int[] sorted = PartOrder.sortedIndexes(sortKeys, parts, size);
+        System.arraycopy(sorted, 0, order, 0, size);
     }
 
     public int coloursForPart(Part part) {
-        List<PartDetails> details = partsMap.get(part.id());
-        if (details == null) {
-            return 0;
-        }
-        return details.size();
+        int partCode = partIds.find(part.id());
+        return partCode < 0 ? 0 : colourCountsByPart[partCode];
     }
-    
+
+    /**
+     * Get the colours and quantities of each part, by part ID. The map is read-only and is built again
+     * after more parts are added.
+     */
     public Map<String, List<PartDetails>> getPartsMap() {
-        return partsMap;
+        Map<String, List<PartDetails>> map = partsMap;
+        if (map == null) {
+            map = new LinkedHashMap<>(2 * partIds.size());
+            for (int index = 0; index < size; index++) {
+                map.computeIfAbsent(parts[index].id(), k -> new ArrayList<>())
+                        .add(new PartDetails(parts[index], colours[index], elements[index], quantities[index]));
+            }
+            for (Map.Entry<String, List<PartDetails>> entry : map.entrySet()) {
+                entry.setValue(Collections.unmodifiableList(entry.getValue()));
+            }
+            map = Collections.unmodifiableMap(map);
+            partsMap = map;
+        }
+        return map;
     }
-    
+
     public Part getPartForId(String id) {
-        List<PartDetails> partDetailsList = partsMap.get(id);
-        if (partDetailsList == null) {
-            return null;
-        }
-        return partDetailsList.get(0).part();
+        int partCode = partIds.find(id);
+        return partCode < 0 ? null : partsByCode[partCode];
     }
 }
@@ -0,0 +1,139 @@
+/*
+Copyright 2024 mrpolyonymous
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package mrpolyonymous.labelgenerator;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Table of the closest available colour for every colour, used to pick a stand-in image when there
+ * is no image bundle for a part's own colour.
+ * <p>
+ * Colours are compared by the distance between them in CIE Lab space, which is close to how
+ * different people see colours to be. A transparent colour is only matched to an opaque one if
+ * there are no transparent colours available, and the other way around. The table is built once,
+ * so each lookup is a map get.
+ */
+final class NearestColours {
+
+    private final Map<String, Colour> nearestById;
+
+    private NearestColours(Map<String, Colour> nearestById) {
+        this.nearestById = nearestById;
+    }
+
+    /**
+     * Find the nearest of {@code available} for each colour in {@code colours}. Colours with
+     * no usable RGB value are left out.
+     */
+    static NearestColours build(Collection<Colour> colours, Collection<Colour> available) {
+        List<Colour> candidates = new ArrayList<>(available.size());
+        List<double[]> candidateLabs = new ArrayList<>(available.size());
+        boolean anyTransparent = false;
+        boolean anyOpaque = false;
+        for (Colour colour : available) {
+            double[] lab = toLab(colour.rgb());
+            if (lab != null) {
+                candidates.add(colour);
+                candidateLabs.add(lab);
+                anyTransparent |= colour.transparent();
+                anyOpaque |= !colour.transparent();
+            }
+        }
+
+        Map<String, Colour> nearestById = new HashMap<>();
+        for (Colour colour : colours) {
+            double[] lab = toLab(colour.rgb());
+            if (lab == null) {
+                continue;
+            }
+            boolean sameTransparency = colour.transparent() ? anyTransparent : anyOpaque;
+            Colour nearest = null;
+            double nearestDistance = Double.MAX_VALUE;
+            for (int i = 0; i < candidates.size(); i++) {
+                Colour candidate = candidates.get(i);
+                if (sameTransparency && candidate.transparent() != colour.transparent()) {
+                    continue;
+                }
+                double distance = distanceSquared(lab, candidateLabs.get(i));
+                if (distance < nearestDistance) {
+                    nearest = candidate;
+                    nearestDistance = distance;
+                }
+            }
+            if (nearest != null) {
+                nearestById.put(colour.id(), nearest);
+            }
+        }
+        return new NearestColours(nearestById);
+    }
+
+    /**
+     * Get the available colour closest to a colour, which is the colour itself if it is available,
+     * or null if there is none
+     */
+    Colour nearest(Colour colour) {
+        return nearestById.get(colour.id());
+    }
+
+    static double distanceSquared(double[] lab1, double[] lab2) {
+        double dl = lab1[0] - lab2[0];
+        double da = lab1[1] - lab2[1];
+        double db = lab1[2] - lab2[2];
+        return dl * dl + da * da + db * db;
+    }
+
+    /**
+     * Convert an sRGB colour written as 6 hex digits to CIE Lab with a D65 white point, or null if
+     * it isn't valid
+     */
+    static double[] toLab(String rgb) {
+        if (rgb == null || rgb.length() != 6) {
+            return null;
+        }
+        int value;
+        try {
+            value = Integer.parseInt(rgb, 16);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        double r = linear((value >> 16) & 0xFF);
+        double g = linear((value >> 8) & 0xFF);
+        double b = linear(value & 0xFF);
+
+        // Linear sRGB to XYZ, relative to the D65 white point
+        double x = (0.4124 * r + 0.3576 * g + 0.1805 * b) / 0.95047;
+        double y = 0.2126 * r + 0.7152 * g + 0.0722 * b;
+        double z = (0.0193 * r + 0.1192 * g + 0.9505 * b) / 1.08883;
+
+        double fx = labF(x);
+        double fy = labF(y);
+        double fz = labF(z);
+        return new double[] { 116 * fy - 16, 500 * (fx - fy), 200 * (fy - fz) };
+    }
+
+    private static double linear(int channel) {
+        double c = channel / 255.0;
+        return c <= 0.04045 ? c / 12.92 : Math.pow((c + 0.055) / 1.055, 2.4);
+    }
+
+    private static double labF(double t) {
+        return t > 216.0 / 24389 ? Math.cbrt(t) : (24389.0 / 27 * t + 16) / 116;
+    }
+}
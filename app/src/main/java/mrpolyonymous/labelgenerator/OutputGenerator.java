@@ -20,11 +20,12 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.TreeMap;
 
 public class OutputGenerator {
 
@@ -38,8 +39,7 @@ public class OutputGenerator {
         System.out.println("Saving parts grid");
         Map<PartAndQuantitiesByColour, ImageInfo> partsAndImages = results.getPartToImage();
         // Organize by category
-        Map<PartCategory, List<PartAndImageInfo>> byCategory = new TreeMap<>(
-                (cat1, cat2) -> cat1.description().compareTo(cat2.description()));
+        Map<PartCategory, List<PartAndImageInfo>> byCategory = new HashMap<>();
         for (Map.Entry<PartAndQuantitiesByColour, ImageInfo> mapEntry : partsAndImages.entrySet()) {
             PartAndQuantitiesByColour part = mapEntry.getKey();
             ImageInfo imageInfo = mapEntry.getValue();
@@ -50,23 +50,38 @@ public class OutputGenerator {
             partList.add(new PartAndImageInfo(part.part(), imageInfo));
         }
         
-        for (List<PartAndImageInfo> partsList : byCategory.values()) {
-            Collections.sort(partsList, (p1, p2) -> {
-                Part part1 = p1.part();
-                Part part2 = p2.part();
-                if (part1.numericId() != null && part2.numericId() != null) {
-                    return part1.numericId().compareTo(part2.numericId());
-                }
-                return part1.id().compareTo(part2.id());
-            });
+        // Sort the categories once, rather than on every insert
+        List<PartCategory> categories = new ArrayList<>(byCategory.keySet());
+        categories.sort(Comparator.comparing(PartCategory::description));
+        Map<PartCategory, List<PartAndImageInfo>> sortedByCategory = new LinkedHashMap<>();
+        for (PartCategory category : categories) {
+            sortedByCategory.put(category, sortParts(byCategory.get(category)));
         }
 
         try (PrintWriter pw = new PrintWriter(new FileWriter(outputFile))) {
-            saveHtml(pw, byCategory);
+            saveHtml(pw, sortedByCategory);
         }
 
     }
 
+    /**
+     * Sort parts into {@link PartOrder} using their sort keys
+     */
+    private static List<PartAndImageInfo> sortParts(List<PartAndImageInfo> partsList) {
+        int size = partsList.size();
+        Part[] parts = new Part[size];
+        long[] sortKeys = new long[size];
+        for (int i = 0; i < size; i++) {
+            parts[i] = partsList.get(i).part();
+            sortKeys[i] = PartOrder.sortKey(parts[i]);
+        }
+        List<PartAndImageInfo> sorted = new ArrayList<>(size);
+        for (int index : PartOrder.sortedIndexes(sortKeys, parts, size)) {
+            sorted.add(partsList.get(index));
+        }
+        return sorted;
+    }
+
     private void saveHtml(PrintWriter pw, Map<PartCategory, List<PartAndImageInfo>> byCategory) {
         pw.print("<!DOCTYPE html>\n" + "<html>\n"
                 + "<head>\n"
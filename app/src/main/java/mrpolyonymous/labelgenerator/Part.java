@@ -15,40 +15,100 @@ limitations under the License.
 */
 package mrpolyonymous.labelgenerator;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 /**
  * A part definition read from Rebrickable data, with some additional fields for convenience.
  * 
  */
 public record Part(String id, String idIgnoringPrint, String description, String partCategoryId, Integer numericId) {
 
-    private static final Pattern PRINT_PATTERN = Pattern.compile("^(.+)(pr|pat)[a-z]?\\d+$");
+    /**
+     * Remove print and pattern suffixes from a part ID, e.g. 3622pr0004 to 3622 and 16709pats01pr0001 to 16709.
+     * A suffix is "pr" or "pat", optionally followed by a lower case letter, followed by digits, and there
+     * must be something left before it.
+     */
     public static String idIgnoringPrint(String id) {
-        try {
-            Integer.parseInt(id);
-            return id;
-        } catch (NumberFormatException e) {
+        int end = id.length();
+        int strippedEnd;
+        // some parts have both print and pattern
+        while ((strippedEnd = stripPrintSuffix(id, end)) != end) {
+            end = strippedEnd;
+        }
+        return end == id.length() ? id : id.substring(0, end);
+    }
+
+    /**
+     * Find where the print or pattern suffix of the first {@code end} characters of an ID starts, or
+     * {@code end} if there isn't one. Keeps the longest prefix, like the regex ^(.+)(pr|pat)[a-z]?\d+$ would.
+     */
+    private static int stripPrintSuffix(String id, int end) {
+        int digitsStart = end;
+        while (digitsStart > 0 && isDigit(id.charAt(digitsStart - 1))) {
+            digitsStart--;
+        }
+        if (digitsStart == end) {
+            return end;
+        }
+        // Candidates from the longest prefix to the shortest
+        if (id.startsWith("pr", digitsStart - 2) && digitsStart - 2 >= 1) {
+            return digitsStart - 2;
+        }
+        if (digitsStart - 3 >= 1 && (id.startsWith("pat", digitsStart - 3)
+                || (id.startsWith("pr", digitsStart - 3) && isLetter(id.charAt(digitsStart - 1))))) {
+            return digitsStart - 3;
+        }
+        if (digitsStart - 4 >= 1 && id.startsWith("pat", digitsStart - 4) && isLetter(id.charAt(digitsStart - 1))) {
+            return digitsStart - 4;
         }
+        return end;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isLetter(char c) {
+        return c >= 'a' && c <= 'z';
+    }
 
-        Matcher m = PRINT_PATTERN.matcher(id);
-        if (m.matches()) {
-            // recursive call because some parts have both print and pattern and I'm too lazy 
-            // to figure out the correct regex
-            return idIgnoringPrint(m.group(1));
+    /**
+     * Parse an int with the same rules as {@link Integer#parseInt(String)}, but return null
+     * rather than throwing if it isn't a number
+     */
+    static Integer tryParseInt(String s) {
+        int length = s.length();
+        if (length == 0) {
+            return null;
+        }
+        boolean negative = false;
+        int i = 0;
+        char first = s.charAt(0);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            if (++i == length) {
+                return null;
+            }
         }
-        return id;
+        // Accumulate negatively, as Integer.parseInt does, so that MIN_VALUE can be parsed
+        int limit = negative ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+        int result = 0;
+        for (; i < length; i++) {
+            int digit = Character.digit(s.charAt(i), 10);
+            if (digit < 0 || result < limit / 10) {
+                return null;
+            }
+            result *= 10;
+            if (result < limit + digit) {
+                return null;
+            }
+            result -= digit;
+        }
+        return negative ? result : -result;
     }
 
     public static Part from(String id, String description, String partCategoryId) {
 
         String idIgnoringPrint = idIgnoringPrint(id);
-        Integer numericId = null;
-        try {
-            numericId = Integer.parseInt(idIgnoringPrint);
-        } catch (NumberFormatException e) {
-        }
+        Integer numericId = tryParseInt(idIgnoringPrint);
 
         return new Part(id, idIgnoringPrint, description, partCategoryId, numericId);
     }
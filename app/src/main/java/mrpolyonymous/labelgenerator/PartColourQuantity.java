@@ -22,18 +22,6 @@ import java.util.Objects;
  */
 public record PartColourQuantity(Part part, Colour colour, int quantity) {
     
-    public static PartColourQuantity fromLine(String line, PartsCsvDatabase partsDb) {
-        String[] elems = Utils.splitCsv(line, 3);
-        //elems[0] = Utils.trimLeadingZeros(elems[0]);
-
-        try {
-            return new PartColourQuantity(partsDb.getPartById(elems[0]), partsDb.getColourById(elems[1]), Integer.parseInt(elems[2]));
-        } catch (RuntimeException e) {
-            System.err.println("Error making part ID=" + elems[0] + " colour ID=" + elems[1] + " qty=" + elems[2]);
-            throw e;
-        }
-    }
-
     /**
      * Explicit constructor to enforce non-null rules
      */
@@ -0,0 +1,134 @@
+/*
+Copyright 2024 mrpolyonymous
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package mrpolyonymous.labelgenerator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index of parts by description, for finding parts whose ID has changed between versions of the
+ * Rebrickable data.
+ * <p>
+ * Exact lookups ignore case the same way as {@link String#equalsIgnoreCase(String)}. Token lookups
+ * split descriptions into words of letters and digits, and rank parts by how many words they share
+ * with the query. Immutable once built.
+ */
+final class PartDescriptionIndex {
+
+    /** Parts in ID order, so that ties always resolve the same way */
+    private final Part[] parts;
+    /** Number of distinct tokens in the description of each part */
+    private final int[] tokenCounts;
+    /** Map case-normalised description to the first part with that description */
+    private final Map<String, Part> partsByDescription;
+    /** Map token to the indexes of the parts with that token in their description, in increasing order */
+    private final Map<String, int[]> partIndexesByToken;
+
+    PartDescriptionIndex(Collection<Part> allParts) {
+        parts = allParts.toArray(new Part[0]);
+        Arrays.sort(parts, Comparator.comparing(Part::id));
+        tokenCounts = new int[parts.length];
+        partsByDescription = new HashMap<>(parts.length * 2);
+
+        Map<String, List<Integer>> postings = new HashMap<>();
+        for (int i = 0; i < parts.length; i++) {
+            String normalised = normalise(parts[i].description());
+            partsByDescription.putIfAbsent(normalised, parts[i]);
+            Set<String> tokens = tokens(normalised);
+            tokenCounts[i] = tokens.size();
+            for (String token : tokens) {
+                postings.computeIfAbsent(token, k -> new ArrayList<>()).add(i);
+            }
+        }
+
+        partIndexesByToken = new HashMap<>(postings.size() * 2);
+        for (Map.Entry<String, List<Integer>> entry : postings.entrySet()) {
+            partIndexesByToken.put(entry.getKey(), entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+        }
+    }
+
+    /**
+     * Fold case one code point at a time, so that two strings are equal after normalising
+     * exactly when {@link String#equalsIgnoreCase(String)} says they are
+     */
+    static String normalise(String description) {
+        StringBuilder sb = new StringBuilder(description.length());
+        description.codePoints().forEach(cp -> sb.appendCodePoint(Character.toLowerCase(Character.toUpperCase(cp))));
+        return sb.toString();
+    }
+
+    /**
+     * Split a normalised description into distinct words of letters and digits
+     */
+    static Set<String> tokens(String normalised) {
+        Set<String> tokens = new LinkedHashSet<>();
+        int start = -1;
+        for (int i = 0; i <= normalised.length(); i++) {
+            boolean wordChar = i < normalised.length() && Character.isLetterOrDigit(normalised.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                tokens.add(normalised.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Find a part with a description that is equal ignoring case, or null if there is none
+     */
+    Part findExact(String description) {
+        return partsByDescription.get(normalise(description));
+    }
+
+    /**
+     * Find parts that share words with a description. Parts that share more words come first,
+     * then parts with fewer other words in their description, then parts in ID order.
+     * @param maxResults maximum number of parts to return
+     */
+    List<Part> findByTokens(String description, int maxResults) {
+        LongIntHashMap overlaps = new LongIntHashMap();
+        List<Integer> candidates = new ArrayList<>();
+        for (String token : tokens(normalise(description))) {
+            int[] partIndexes = partIndexesByToken.get(token);
+            if (partIndexes == null) {
+                continue;
+            }
+            for (int partIndex : partIndexes) {
+                if (overlaps.addTo(partIndex, 1) == 1) {
+                    candidates.add(partIndex);
+                }
+            }
+        }
+
+        candidates.sort(Comparator.<Integer>comparingInt(i -> -overlaps.get(i, 0))
+                .thenComparingInt(i -> tokenCounts[i])
+                .thenComparingInt(i -> i));
+        List<Part> results = new ArrayList<>(Math.min(maxResults, candidates.size()));
+        for (int i = 0; i < candidates.size() && i < maxResults; i++) {
+            results.add(parts[candidates.get(i)]);
+        }
+        return results;
+    }
+}
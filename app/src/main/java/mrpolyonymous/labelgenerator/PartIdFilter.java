@@ -0,0 +1,143 @@
+/*
+Copyright 2024 mrpolyonymous
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package mrpolyonymous.labelgenerator;
+
+import java.util.Collection;
+
+/**
+ * Set of part IDs used to skip rows of the data files for parts that aren't needed. Rows can be
+ * checked straight from a {@link CsvTokenizer} without creating any objects.
+ * <p>
+ * Small sets are exact. Large sets use a Bloom filter, which can let through a small fraction of
+ * other parts but uses about 10 bits per ID. Immutable once made, so it can be used from several threads.
+ */
+abstract class PartIdFilter {
+
+    /** Filter that lets every part through */
+    static final PartIdFilter ALL = new PartIdFilter() {
+        @Override
+        boolean mightContain(String partId) {
+            return true;
+        }
+
+        @Override
+        boolean mightContain(CsvTokenizer tokenizer, int field) {
+            return true;
+        }
+    };
+
+    /** Sets with at least this many IDs use a Bloom filter */
+    static final int BLOOM_FILTER_MIN_SIZE = 100_000;
+
+    /**
+     * Make a filter for a set of part IDs
+     */
+    static PartIdFilter of(Collection<String> partIds) {
+        if (partIds.size() >= BLOOM_FILTER_MIN_SIZE) {
+            return new BloomFilter(partIds);
+        }
+        return new ExactFilter(partIds);
+    }
+
+    /**
+     * Check if a part ID might be in the set. Always true if it is.
+     */
+    abstract boolean mightContain(String partId);
+
+    /**
+     * Check if a tokenized field might be a part ID in the set. Always true if it is.
+     */
+    abstract boolean mightContain(CsvTokenizer tokenizer, int field);
+
+    private static final class ExactFilter extends PartIdFilter {
+        private final SymbolTable partIds;
+
+        ExactFilter(Collection<String> partIds) {
+            this.partIds = new SymbolTable(partIds.size());
+            for (String partId : partIds) {
+                this.partIds.intern(partId);
+            }
+        }
+
+        @Override
+        boolean mightContain(String partId) {
+            return partIds.find(partId) >= 0;
+        }
+
+        @Override
+        boolean mightContain(CsvTokenizer tokenizer, int field) {
+            return partIds.find(tokenizer, field) >= 0;
+        }
+    }
+
+    /**
+     * Bloom filter over the String hash codes of the IDs, with about a 1% false positive rate
+     */
+    private static final class BloomFilter extends PartIdFilter {
+        private static final int BITS_PER_ID = 10;
+        private static final int NUM_HASHES = 7;
+
+        private final long[] bits;
+        private final int numBits;
+
+        BloomFilter(Collection<String> partIds) {
+            numBits = (int) Math.min(Integer.MAX_VALUE - 64L, (long) partIds.size() * BITS_PER_ID);
+            bits = new long[(numBits + 63) / 64];
+            for (String partId : partIds) {
+                int hash = partId.hashCode();
+                int h1 = hash1(hash);
+                int h2 = hash2(hash);
+                for (int i = 0; i < NUM_HASHES; i++) {
+                    int bit = Integer.remainderUnsigned(h1 + i * h2, numBits);
+                    bits[bit >>> 6] |= 1L << bit;
+                }
+            }
+        }
+
+        private static int hash1(int hash) {
+            int h = hash * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+
+        /** Second hash for double hashing, always odd so that the probes differ */
+        private static int hash2(int hash) {
+            int h = Integer.rotateLeft(hash, 16) * 0x85EBCA6B;
+            return (h ^ (h >>> 13)) | 1;
+        }
+
+        private boolean mightContainHash(int hash) {
+            int h1 = hash1(hash);
+            int h2 = hash2(hash);
+            for (int i = 0; i < NUM_HASHES; i++) {
+                int bit = Integer.remainderUnsigned(h1 + i * h2, numBits);
+                if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        boolean mightContain(String partId) {
+            return mightContainHash(partId.hashCode());
+        }
+
+        @Override
+        boolean mightContain(CsvTokenizer tokenizer, int field) {
+            return mightContainHash(tokenizer.fieldHashCode(field));
+        }
+    }
+}
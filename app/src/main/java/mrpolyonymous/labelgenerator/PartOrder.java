@@ -0,0 +1,192 @@
+/*
+Copyright 2024 mrpolyonymous
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package mrpolyonymous.labelgenerator;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * The order parts are listed in: by the ID without print, with the digits it starts with compared as
+ * a number and the rest compared as text, then by the full ID. So 3001 comes before 3001a, which comes
+ * before 3002, which comes before 30010, and IDs that don't start with a digit come last.
+ * <p>
+ * For sorting many parts, each part gets a sort key packed into a long that is computed once. A part
+ * with a smaller key always comes first, so most of the sorting is done by sorting an array of longs
+ * and the comparator is only needed for parts with the same key. The key holds the leading number of
+ * the ID, up to {@value #MAX_NUMBER}, and the next {@value #KEY_CHARS} characters.
+ */
+final class PartOrder {
+
+    private static final int NUMBER_BITS = 24;
+    private static final int CHAR_BITS = 7;
+    private static final int KEY_CHARS = 2;
+    private static final int KEY_BITS = NUMBER_BITS + KEY_CHARS * CHAR_BITS;
+    private static final int INDEX_BITS = Long.SIZE - 1 - KEY_BITS;
+
+    /** Biggest leading number that fits in a key */
+    private static final int MAX_NUMBER = (1 << NUMBER_BITS) - 3;
+    /** Number field of a key for IDs with a bigger leading number, which are told apart by the comparator */
+    private static final int TOO_BIG = MAX_NUMBER + 1;
+    /** Number field of a key for IDs that don't start with a digit, which come last */
+    private static final int NO_NUMBER = MAX_NUMBER + 2;
+    /** Biggest number of parts that can be sorted at once */
+    static final int MAX_SIZE = 1 << INDEX_BITS;
+
+    /** Sort with all cores when there are at least this many parts */
+    private static final int PARALLEL_SORT_MIN_SIZE = 1 << 16;
+
+    static final Comparator<Part> COMPARATOR = (p1, p2) -> {
+        int idComp = compareIds(p1.idIgnoringPrint(), p2.idIgnoringPrint());
+        return idComp != 0 ? idComp : p1.id().compareTo(p2.id());
+    };
+
+    private PartOrder() {
+    }
+
+    /**
+     * Compare IDs by the number they start with, then by the rest, then as plain text so that the
+     * order is the same as {@link String#compareTo(String)} for IDs with the same number and rest
+     */
+    static int compareIds(String id1, String id2) {
+        int digits1 = leadingDigits(id1);
+        int digits2 = leadingDigits(id2);
+        if (digits1 == 0 || digits2 == 0) {
+            if (digits1 != digits2) {
+                // IDs without a number come last
+                return digits1 == 0 ? 1 : -1;
+            }
+            return id1.compareTo(id2);
+        }
+        // Compare the numbers without leading zeros by length and then digit by digit
+        int start1 = skipZeros(id1, digits1);
+        int start2 = skipZeros(id2, digits2);
+        int numberComp = Integer.compare(digits1 - start1, digits2 - start2);
+        for (int i = 0; numberComp == 0 && i < digits1 - start1; i++) {
+            numberComp = Character.compare(id1.charAt(start1 + i), id2.charAt(start2 + i));
+        }
+        if (numberComp != 0) {
+            return numberComp;
+        }
+        int restComp = CharSequence.compare(id1.subSequence(digits1, id1.length()),
+                id2.subSequence(digits2, id2.length()));
+        return restComp != 0 ? restComp : id1.compareTo(id2);
+    }
+
+    private static int leadingDigits(String id) {
+        int digits = 0;
+        while (digits < id.length() && id.charAt(digits) >= '0' && id.charAt(digits) <= '9') {
+            digits++;
+        }
+        return digits;
+    }
+
+    private static int skipZeros(String id, int digits) {
+        int start = 0;
+        while (start < digits - 1 && id.charAt(start) == '0') {
+            start++;
+        }
+        return start;
+    }
+
+    /**
+     * Make the sort key of a part. If the key of one part is less than the key of another then it is
+     * also less by {@link #COMPARATOR}. Parts with the same key need to be compared.
+     */
+    static long sortKey(Part part) {
+        String id = part.idIgnoringPrint();
+        int digits = leadingDigits(id);
+        long number;
+        if (digits == 0) {
+            number = NO_NUMBER;
+        } else if (digits - skipZeros(id, digits) > 8) {
+            number = TOO_BIG;
+        } else {
+            number = Math.min(Integer.parseInt(id, 0, digits, 10), TOO_BIG);
+        }
+        long key = number;
+        for (int i = 0; i < KEY_CHARS; i++) {
+            int index = digits + i;
+            int c;
+            if (number == TOO_BIG || index >= id.length()) {
+                // Nothing after a number that doesn't fit, and 0 for no character so that shorter IDs come first
+                c = 0;
+            } else {
+                // Characters past 125 share a value
+                c = Math.min(id.charAt(index) + 1, (1 << CHAR_BITS) - 1);
+            }
+            key = (key << CHAR_BITS) | c;
+        }
+        return key;
+    }
+
+    /**
+     * Sort the first {@code size} parts of an array, which may contain the same part more than once.
+     * Equal parts stay in the order they are in the array.
+     * @param sortKeys the {@link #sortKey(Part)} of each part
+     * @return indexes of the parts in sorted order
+     */
+    static int[] sortedIndexes(long[] sortKeys, Part[] parts, int size) {
+        if (size > MAX_SIZE) {
+            throw new IllegalArgumentException("Too many parts to sort: " + size);
+        }
+        long[] keysAndIndexes = new long[size];
+        for (int i = 0; i < size; i++) {
+            keysAndIndexes[i] = (sortKeys[i] << INDEX_BITS) | i;
+        }
+        if (size >= PARALLEL_SORT_MIN_SIZE) {
+            Arrays.parallelSort(keysAndIndexes);
+        } else {
+            Arrays.sort(keysAndIndexes);
+        }
+
+        long indexMask = (1L << INDEX_BITS) - 1;
+        int[] indexes = new int[size];
+        for (int i = 0; i < size; i++) {
+            indexes[i] = (int) (keysAndIndexes[i] & indexMask);
+        }
+
+        // Parts with the same key are in array order, so sort them with the comparator
+        int runStart = 0;
+        for (int i = 1; i <= size; i++) {
+            if (i == size || keysAndIndexes[i] >>> INDEX_BITS != keysAndIndexes[runStart] >>> INDEX_BITS) {
+                if (i - runStart > 1) {
+                    sortRun(indexes, runStart, i, parts);
+                }
+                runStart = i;
+            }
+        }
+        return indexes;
+    }
+
+    private static void sortRun(int[] indexes, int start, int end, Part[] parts) {
+        boolean samePart = true;
+        for (int i = start + 1; i < end && samePart; i++) {
+            samePart = parts[indexes[i]].id().equals(parts[indexes[start]].id());
+        }
+        if (samePart) {
+            return;
+        }
+        Integer[] run = new Integer[end - start];
+        for (int i = start; i < end; i++) {
+            run[i - start] = indexes[i];
+        }
+        // Stable, so equal parts stay in array order
+        Arrays.sort(run, Comparator.comparing(index -> parts[index], COMPARATOR));
+        for (int i = start; i < end; i++) {
+            indexes[i] = run[i - start];
+        }
+    }
+}
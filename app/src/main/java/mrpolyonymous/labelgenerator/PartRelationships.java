@@ -0,0 +1,167 @@
+/*
+Copyright 2024 mrpolyonymous
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package mrpolyonymous.labelgenerator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Relationships between parts from Rebrickable's part_relationships.csv, used to find images for
+ * parts that don't have their own.
+ * <p>
+ * Parts are given dense codes by a {@link SymbolTable} and the image part for each code is held in
+ * an int array. Prints and patterns are followed to their base part, and on through
+ * {@link #IMAGE_ALIASES}, when the relationships are read, so looking up the image part of any part
+ * is a single array access. Immutable once read, so it can be used from several threads.
+ */
+final class PartRelationships {
+
+    /**
+     * Some parts have numbers that don't have an image, this maps them to a close-enough image.
+     * These aren't prints or patterns in part_relationships.csv, so they are added as extra parents
+     * when the relationships are read.
+     */
+    static final Map<String, String> IMAGE_ALIASES;
+
+    /** Relationships when part_relationships.csv isn't available, which only know the image aliases */
+    static final PartRelationships EMPTY;
+
+    // Relationship types in part_relationships.csv
+    private static final String PRINT = "P";
+    private static final String PATTERN = "T";
+
+    /** Give up following print and pattern parents after this many, in case of a loop */
+    private static final int MAX_DEPTH = 8;
+
+    static {
+        // These mappings were discovered by hand.
+        // The mapping of standard part number to part number associated with the image seems
+        // to be internal to rebrickable.
+        IMAGE_ALIASES = new LinkedHashMap<>();
+        IMAGE_ALIASES.put("19798", "3940"); //Support 2 x 2 x 2 Stand with Reinforced Underside
+        IMAGE_ALIASES.put("47225", "47224c0"); //Pneumatic Cylinder with 2 Inlets and Rounded End Medium (48mm)
+        IMAGE_ALIASES.put("73590c02a", "73590a"); // Flexible Hose 8.5L with Tabbed Ends (Ends same color as Tube)
+        IMAGE_ALIASES.put("73983", "2429c01"); // Hinge Plate 1 x 4 Swivel Top / Base [Complete Assembly]
+        IMAGE_ALIASES.put("76320c01", "32181c03"); // Technic Shock Absorber 10L, Damped, Normal Spring
+        IMAGE_ALIASES.put("98560", "3684"); // Slope 75� 2 x 2 x 3 [Solid Studs]
+
+        EMPTY = build(new SymbolTable(), new IntPairs(), false);
+    }
+
+    private final SymbolTable partIds;
+    /** Image part code for each part code, which is the part itself if it isn't a print, pattern or alias */
+    private final int[] imageParts;
+    /** Whether part_relationships.csv was read, rather than just the image aliases */
+    private final boolean loaded;
+
+    private PartRelationships(SymbolTable partIds, int[] imageParts, boolean loaded) {
+        this.partIds = partIds;
+        this.imageParts = imageParts;
+        this.loaded = loaded;
+    }
+
+    /**
+     * Read CSV data in the format of part_relationships.csv, including the header line. The reader is not closed.
+     */
+    static PartRelationships read(BufferedReader br) throws IOException {
+        SymbolTable partIds = new SymbolTable(1 << 14);
+        IntPairs parents = new IntPairs();
+
+        CsvTokenizer tokenizer = new CsvTokenizer(3);
+        String line = br.readLine();
+        // Skip header line rel_type,child_part_num,parent_part_num
+        while ((line = br.readLine()) != null) {
+            if (line.isBlank()) {
+                continue;
+            }
+            tokenizer.reset(line);
+            if (!tokenizer.fieldEquals(0, PRINT) && !tokenizer.fieldEquals(0, PATTERN)) {
+                // alternates, molds, pairs and sub-parts may not look the same
+                continue;
+            }
+            parents.add(partIds.intern(tokenizer, 1), partIds.intern(tokenizer, 2));
+        }
+        return build(partIds, parents, true);
+    }
+
+    private static PartRelationships build(SymbolTable partIds, IntPairs parents, boolean loaded) {
+        for (Map.Entry<String, String> alias : IMAGE_ALIASES.entrySet()) {
+            partIds.intern(alias.getKey());
+            partIds.intern(alias.getValue());
+        }
+
+        int numParts = partIds.size();
+        int[] directParents = new int[numParts];
+        Arrays.fill(directParents, -1);
+        for (int i = 0; i < parents.size; i++) {
+            // If a part has several parents, keep the first
+            if (directParents[parents.first[i]] < 0) {
+                directParents[parents.first[i]] = parents.second[i];
+            }
+        }
+        // Aliases take priority, and prints of an aliased part follow them too
+        for (Map.Entry<String, String> alias : IMAGE_ALIASES.entrySet()) {
+            directParents[partIds.find(alias.getKey())] = partIds.find(alias.getValue());
+        }
+        int[] imageParts = new int[numParts];
+        for (int code = 0; code < numParts; code++) {
+            int base = code;
+            for (int depth = 0; depth < MAX_DEPTH && directParents[base] >= 0; depth++) {
+                base = directParents[base];
+            }
+            imageParts[code] = base;
+        }
+
+        return new PartRelationships(partIds, imageParts, loaded);
+    }
+
+    /**
+     * Whether part_relationships.csv was read. If not, only the image aliases are known.
+     */
+    boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Get the part whose image is used for a part: the part that a print or pattern is based on,
+     * following prints of patterns back to the plain part, or the image alias of a part without an
+     * image. Returns the part itself if it is neither, or null if the part isn't known at all.
+     */
+    String imagePartId(String partId) {
+        int code = partIds.find(partId);
+        return code < 0 ? null : partIds.get(imageParts[code]);
+    }
+
+    /** Growable list of pairs of ints */
+    private static final class IntPairs {
+        int[] first = new int[1024];
+        int[] second = new int[1024];
+        int size;
+
+        void add(int a, int b) {
+            if (size == first.length) {
+                first = Arrays.copyOf(first, size * 2);
+                second = Arrays.copyOf(second, size * 2);
+            }
+            first[size] = a;
+            second[size] = b;
+            size++;
+        }
+    }
+}
@@ -18,103 +18,421 @@ package mrpolyonymous.labelgenerator;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 
 /**
  * In-memory database of parts read from Rebrickable CSV data files
+ * <p>
+ * Different tables can be read on different threads at the same time, except that colours and elements
+ * share a table of colour IDs, and part categories and parts share a table of category IDs, so each of
+ * those pairs has to be read one after the other.
+ * <p>
+ * Once loaded, {@link #freeze()} makes the database read-only. A frozen database can be shared by
+ * any number of threads without locking, and {@link CatalogueReference} can swap in a newly loaded
+ * one while they run.
  */
 public class PartsCsvDatabase {
 
-    private static record PartColourId(String partId, String colourId) {}
-    
+    /**
+     * Orders elements from oldest to newest, assuming Rebrickable element IDs are numbers that
+     * grow over time. Use with {@link #tryGetElementByPartColourId(String, String, Comparator)}.
+     */
+    public static final Comparator<Element> NEWEST_ELEMENT_LAST = Comparator
+            .comparingInt((Element element) -> element.id().length())
+            .thenComparing(Element::id);
+
     private Map<String, Colour> colours;
     private Map<String, PartCategory> partCategories;
     private Map<String, Part> parts;
-    /** Map element ID to element data */
-    private Map<String, Element> elements;
-    /** Map part ID to count of number of elements that reference that part */
-    private Map<String, Integer> elementCountsByPart;
-    /** Map part and colour ID to element */
-    private Map<PartColourId, Element> elementByPartColour;
+    /** Elements, with lookups by element ID and by part and colour ID, and counts of elements per part */
+    private ElementTable elements;
+    /** Built the first time parts are looked up by description, and dropped when parts are added */
+    private volatile PartDescriptionIndex descriptionIndex;
+    /** Parts sorted by ID, for prefix lookups. Built on first use and dropped when parts are added. */
+    private volatile Part[] partsSortedById;
+    /** Set by {@link #freeze()}, after which nothing can be added or removed */
+    private volatile boolean frozen;
+
+    // IDs that are repeated in many rows, so that there is only one instance of each
+    private final SymbolTable colourIds;
+    private final SymbolTable categoryIds;
 
     public PartsCsvDatabase() {
         colours = new HashMap<>();
         partCategories = new HashMap<>();
         parts = new HashMap<>();
-        elements = new HashMap<>();
-        elementCountsByPart = new HashMap<String, Integer>();
-        elementByPartColour = new HashMap<>();
+
+        colourIds = new SymbolTable(512);
+        categoryIds = new SymbolTable(128);
+        elements = new ElementTable(colourIds);
     }
 
     public void readColours(File dataFile) throws IOException {
-        try (BufferedReader br = new BufferedReader(new FileReader(dataFile))) {
-            String line = br.readLine();
-            // Skip header line id,name,rgb,is_trans
-            while ((line = br.readLine()) != null) {
-                String[] elems = Utils.splitCsv(line, 4);
-                Colour colour = new Colour(elems[0], elems[1]);
-                colours.put(elems[0], colour);
-            }
+        try (BufferedReader br = Files.newBufferedReader(dataFile.toPath(), StandardCharsets.UTF_8)) {
+            readColours(br);
+        }
+    }
+
+    /**
+     * Read colours from CSV data, including the header line. The reader is not closed.
+     */
+    public void readColours(BufferedReader br) throws IOException {
+        checkNotFrozen();
+        CsvTokenizer tokenizer = new CsvTokenizer(4);
+        String line = br.readLine();
+        // Skip header line id,name,rgb,is_trans
+        while ((line = br.readLine()) != null) {
+            tokenizer.reset(line);
+            putColour(colourFromRow(tokenizer));
         }
     }
 
+    static Colour colourFromRow(CsvTokenizer tokenizer) {
+        return new Colour(tokenizer.getString(0), tokenizer.getString(1), tokenizer.getString(2),
+                tokenizer.getBoolean(3));
+    }
+
     public void readPartCategories(File dataFile) throws FileNotFoundException, IOException {
-        try (BufferedReader br = new BufferedReader(new FileReader(dataFile))) {
-            String line = br.readLine();
-            // Skip header line id,name
-            while ((line = br.readLine()) != null) {
-                String[] elems = Utils.splitCsv(line, 2);
-                partCategories.put(elems[0], new PartCategory(elems[0], elems[1]));
-            }
+        try (BufferedReader br = Files.newBufferedReader(dataFile.toPath(), StandardCharsets.UTF_8)) {
+            readPartCategories(br);
+        }
+    }
+
+    /**
+     * Read part categories from CSV data, including the header line. The reader is not closed.
+     */
+    public void readPartCategories(BufferedReader br) throws IOException {
+        checkNotFrozen();
+        CsvTokenizer tokenizer = new CsvTokenizer(2);
+        String line = br.readLine();
+        // Skip header line id,name
+        while ((line = br.readLine()) != null) {
+            tokenizer.reset(line);
+            putPartCategory(new PartCategory(categoryIds.canonical(tokenizer, 0), tokenizer.getString(1)));
         }
     }
 
     public void readFullPartsList(File dataFile) throws FileNotFoundException, IOException {
-        try (BufferedReader br = new BufferedReader(new FileReader(dataFile))) {
-            String line = br.readLine();
-            // Skip header line part_num,name,part_cat_id,part_material
-            while ((line = br.readLine()) != null) {
-                String[] elems = Utils.splitCsv(line, 4);
-                // rebrickable started adding leading zeros to numeric part ids under a 
-                // certain length, which can mess up part matching. Trim them
-                // down to the actual part ID.
-                //elems[0] = Utils.trimLeadingZeros(elems[0]);
-                parts.put(elems[0], Part.from(elems[0], elems[1], elems[2]));
-                
-                // elems[3] is part material, which we ignore
+        try (BufferedReader br = Files.newBufferedReader(dataFile.toPath(), StandardCharsets.UTF_8)) {
+            readFullPartsList(br);
+        }
+    }
+
+    /**
+     * Read parts from CSV data, including the header line. The reader is not closed.
+     */
+    public void readFullPartsList(BufferedReader br) throws IOException {
+        checkNotFrozen();
+        CsvTokenizer tokenizer = new CsvTokenizer(4);
+        String line = br.readLine();
+        // Skip header line part_num,name,part_cat_id,part_material
+        while ((line = br.readLine()) != null) {
+            tokenizer.reset(line);
+            // rebrickable started adding leading zeros to numeric part ids under a 
+            // certain length, which can mess up part matching. Trim them
+            // down to the actual part ID.
+            //elems[0] = Utils.trimLeadingZeros(elems[0]);
+            putPart(Part.from(tokenizer.getString(0), tokenizer.getString(1), categoryIds.canonical(tokenizer, 2)));
+        }
+    }
+
+    /**
+     * Read parts from a CSV file using all available cores. See {@link ChunkedCsvParser}.
+     */
+    public void readFullPartsListMapped(File dataFile) throws IOException {
+        readFullPartsList(ChunkedCsvParser.map(dataFile));
+    }
+
+    /**
+     * Read parts from UTF-8 CSV data in memory, including the header line, using all available cores
+     */
+    void readFullPartsList(ByteBuffer csvData) {
+        checkNotFrozen();
+        List<List<Part>> chunks = ChunkedCsvParser.parse(csvData, 4, ArrayList::new,
+                (chunk, tokenizer) -> chunk.add(partFromRow(tokenizer)));
+        for (List<Part> chunk : chunks) {
+            for (Part part : chunk) {
+                putPart(part);
             }
         }
     }
+
+    /**
+     * Make a part from a row without using the symbol tables, so that it can be done on any thread.
+     * {@link #addPart(Part)} takes care of sharing repeated IDs.
+     */
+    static Part partFromRow(CsvTokenizer tokenizer) {
+        // field 3 is part material, which we ignore
+        return Part.from(tokenizer.getString(0), tokenizer.getString(1), tokenizer.getString(2));
+    }
     
     public void readElements(File dataFile) throws FileNotFoundException, IOException {
-        try (BufferedReader br = new BufferedReader(new FileReader(dataFile))) {
-            String line = br.readLine();
-            // Skip header line element_id,part_num,color_id,design_id
-            while ((line = br.readLine()) != null) {
-                if (line.isBlank()) {
-                    continue;
-                }
-                String[] elems = Utils.splitCsv(line, 4);
-                String partId = elems[1]; //Utils.trimLeadingZeros(elems[1]);
-                Element element = new Element(elems[0], partId, elems[2], elems[3]);
-                elements.put(elems[0], element);
-                elementByPartColour.put(new PartColourId(partId, elems[2]), element);
-                
-                elementCountsByPart.compute(partId, (k,v)->{
-                    if (v == null) {
-                        return 1;
-                    } else {
-                        return 1 + v.intValue();
-                    }
-                });
+        try (BufferedReader br = Files.newBufferedReader(dataFile.toPath(), StandardCharsets.UTF_8)) {
+            readElements(br);
+        }
+    }
+
+    /**
+     * Read elements from CSV data, including the header line. The reader is not closed.
+     */
+    public void readElements(BufferedReader br) throws IOException {
+        readElements(br, PartIdFilter.ALL);
+    }
+
+    /**
+     * Read only the elements for parts that pass a filter from CSV data, including the header line.
+     * Other rows are skipped without creating any objects. The reader is not closed.
+     */
+    void readElements(BufferedReader br, PartIdFilter partIdFilter) throws IOException {
+        checkNotFrozen();
+        CsvTokenizer tokenizer = new CsvTokenizer(4);
+        String line = br.readLine();
+        // Skip header line element_id,part_num,color_id,design_id
+        while ((line = br.readLine()) != null) {
+            if (line.isBlank()) {
+                continue;
+            }
+            tokenizer.reset(line);
+            if (partIdFilter.mightContain(tokenizer, 1)) {
+                elements.add(tokenizer);
+            }
+        }
+    }
+
+    /**
+     * Read elements from a CSV file using all available cores. See {@link ChunkedCsvParser}.
+     */
+    public void readElementsMapped(File dataFile) throws IOException {
+        readElementsMapped(dataFile, PartIdFilter.ALL);
+    }
+
+    /**
+     * Read only the elements for parts that pass a filter from a CSV file using all available cores
+     */
+    void readElementsMapped(File dataFile, PartIdFilter partIdFilter) throws IOException {
+        readElements(ChunkedCsvParser.map(dataFile), partIdFilter);
+    }
+
+    /**
+     * Read only the elements for parts that pass a filter from UTF-8 CSV data in memory, including the
+     * header line, using all available cores
+     */
+    void readElements(ByteBuffer csvData, PartIdFilter partIdFilter) {
+        checkNotFrozen();
+        List<List<Element>> chunks = ChunkedCsvParser.parse(csvData, 4, ArrayList::new, (chunk, tokenizer) -> {
+            if (partIdFilter.mightContain(tokenizer, 1)) {
+                chunk.add(elementFromRow(tokenizer));
+            }
+        });
+        // Add in file order so that duplicate part/colour combinations resolve the same way as readElements
+        for (List<Element> chunk : chunks) {
+            for (Element element : chunk) {
+                putElement(element);
             }
         }
     }
 
+    /**
+     * Make an element from a row without using the symbol tables, so that it can be done on any thread.
+     * {@link #addElement(Element)} takes care of storing repeated IDs once.
+     */
+    static Element elementFromRow(CsvTokenizer tokenizer) {
+        String partId = tokenizer.getString(1); //Utils.trimLeadingZeros(elems[1]);
+        return new Element(tokenizer.getString(0), partId, tokenizer.getString(2), tokenizer.getString(3));
+    }
+
+    /**
+     * Make the database read-only, so that it can be shared between threads. The tables are copied into
+     * immutable maps, and any later attempt to add or remove rows throws {@link IllegalStateException}.
+     * @return this database
+     */
+    public PartsCsvDatabase freeze() {
+        if (!frozen) {
+            colours = Map.copyOf(colours);
+            partCategories = Map.copyOf(partCategories);
+            parts = Map.copyOf(parts);
+            elements.buildIndexes();
+            frozen = true;
+        }
+        return this;
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * Throw {@link IllegalStateException} if the database is frozen. Loops that add many rows check
+     * once and then use the put methods, which don't check.
+     */
+    void checkNotFrozen() {
+        if (frozen) {
+            throw new IllegalStateException("Parts database is frozen");
+        }
+    }
+
+    void addColour(Colour colour) {
+        checkNotFrozen();
+        putColour(colour);
+    }
+
+    /** Same as {@link #addColour(Colour)} without {@link #checkNotFrozen()} */
+    void putColour(Colour colour) {
+        String id = colourIds.canonical(colour.id());
+        if (id != colour.id()) {
+            colour = new Colour(id, colour.description(), colour.rgb(), colour.transparent());
+        }
+        colours.put(id, colour);
+    }
+
+    void addPartCategory(PartCategory partCategory) {
+        checkNotFrozen();
+        putPartCategory(partCategory);
+    }
+
+    /** Same as {@link #addPartCategory(PartCategory)} without {@link #checkNotFrozen()} */
+    void putPartCategory(PartCategory partCategory) {
+        String id = categoryIds.canonical(partCategory.id());
+        if (id != partCategory.id()) {
+            partCategory = new PartCategory(id, partCategory.description());
+        }
+        partCategories.put(id, partCategory);
+    }
+
+    /**
+     * Add a part. The category ID is replaced with the shared instance if it isn't already.
+     */
+    void addPart(Part part) {
+        checkNotFrozen();
+        putPart(part);
+    }
+
+    /** Same as {@link #addPart(Part)} without {@link #checkNotFrozen()} */
+    void putPart(Part part) {
+        String categoryId = categoryIds.canonical(part.partCategoryId());
+        if (categoryId != part.partCategoryId()) {
+            part = new Part(part.id(), part.idIgnoringPrint(), part.description(), categoryId, part.numericId());
+        }
+        parts.put(part.id(), part);
+        descriptionIndex = null;
+        partsSortedById = null;
+    }
+
+    /**
+     * Add an element. If there is already an element with the same part and colour, the
+     * new element replaces it in lookups by part and colour. An element with the same ID
+     * as an earlier one replaces it.
+     */
+    void addElement(Element element) {
+        checkNotFrozen();
+        putElement(element);
+    }
+
+    /** Same as {@link #addElement(Element)} without {@link #checkNotFrozen()} */
+    void putElement(Element element) {
+        elements.add(element);
+    }
+
+    void removeColour(String colourId) {
+        checkNotFrozen();
+        colours.remove(colourId);
+    }
+
+    void removePartCategory(String partCategoryId) {
+        checkNotFrozen();
+        partCategories.remove(partCategoryId);
+    }
+
+    void removePart(String partId) {
+        checkNotFrozen();
+        if (parts.remove(partId) != null) {
+            descriptionIndex = null;
+            partsSortedById = null;
+        }
+    }
+
+    void removeElement(String elementId) {
+        checkNotFrozen();
+        elements.remove(elementId);
+    }
+
+    Colour tryGetColourById(String colourId) {
+        return colours.get(colourId);
+    }
+
+    PartCategory tryGetCategoryById(String partCategoryId) {
+        return partCategories.get(partCategoryId);
+    }
+
+    Part tryGetPartById(String partId) {
+        return parts.get(partId);
+    }
+
+    Element tryGetElementById(String elementId) {
+        int row = elements.findRow(elementId);
+        return row < 0 ? null : elements.get(row);
+    }
+
+    Collection<Colour> getColours() {
+        return colours.values();
+    }
+
+    Collection<PartCategory> getPartCategories() {
+        return partCategories.values();
+    }
+
+    Collection<Part> getParts() {
+        return parts.values();
+    }
+
+    /**
+     * All elements, in the order they were first added. Element objects are created as the collection
+     * is iterated.
+     */
+    Collection<Element> getElements() {
+        return new AbstractCollection<Element>() {
+            @Override
+            public Iterator<Element> iterator() {
+                return new Iterator<Element>() {
+                    private int row = elements.nextRow(0);
+
+                    @Override
+                    public boolean hasNext() {
+                        return row >= 0;
+                    }
+
+                    @Override
+                    public Element next() {
+                        if (row < 0) {
+                            throw new NoSuchElementException();
+                        }
+                        Element element = elements.get(row);
+                        row = elements.nextRow(row + 1);
+                        return element;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return elements.size();
+            }
+        };
+    }
+
     public Part getPartById(String partId) {
         Part part = parts.get(partId);
         if (part == null) {
@@ -124,11 +442,11 @@ public class PartsCsvDatabase {
     }
 
     public int getElementCountByPartId(String partId) {
-        Integer count = elementCountsByPart.get(partId);
-        if (count == null) {
+        int count = elements.elementCount(partId);
+        if (count == 0) {
             throw new NoSuchElementException("No part found with ID " + partId);
         }
-        return count.intValue();
+        return count;
     }
 
     public Colour getColourById(String colourId) {
@@ -147,26 +465,97 @@ public class PartsCsvDatabase {
         return category;
     }
 
+    private PartDescriptionIndex getDescriptionIndex() {
+        PartDescriptionIndex index = descriptionIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = descriptionIndex;
+                if (index == null) {
+                    index = new PartDescriptionIndex(parts.values());
+                    descriptionIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Get a part with a description that is equal ignoring case, returning null if not found
+     */
     public Part tryGetPartByDescription(String description) {
-        for (Part part : parts.values()) {
-            if (part.description().equalsIgnoreCase(description)) {
-                return part;
+        return getDescriptionIndex().findExact(description);
+    }
+
+    /**
+     * Get the parts whose descriptions share the most words with a description, best match first.
+     * Useful for finding a part that was renamed as well as given a new ID.
+     * @param maxResults maximum number of parts to return
+     */
+    public List<Part> findPartsByDescriptionWords(String description, int maxResults) {
+        return getDescriptionIndex().findByTokens(description, maxResults);
+    }
+
+    private Part[] getPartsSortedById() {
+        Part[] sorted = partsSortedById;
+        if (sorted == null) {
+            synchronized (this) {
+                sorted = partsSortedById;
+                if (sorted == null) {
+                    sorted = parts.values().toArray(new Part[0]);
+                    Arrays.sort(sorted, Comparator.comparing(Part::id));
+                    partsSortedById = sorted;
+                }
             }
         }
-        return null;
+        return sorted;
+    }
+
+    /**
+     * Get all parts with an ID that starts with a prefix, in ID order
+     */
+    public List<Part> getPartsByIdPrefix(String idPrefix) {
+        Part[] sorted = getPartsSortedById();
+        List<Part> matches = new ArrayList<>();
+        for (int i = firstIndexNotBefore(sorted, idPrefix); i < sorted.length && sorted[i].id().startsWith(idPrefix); i++) {
+            matches.add(sorted[i]);
+        }
+        return matches;
     }
 
+    /**
+     * Get the part with the shortest ID that starts with a prefix, returning null if there is none.
+     * If several IDs have the same length, the first in ID order is returned.
+     */
     public Part tryGetPartByIdPrefix(String idPrefix) {
-        for  (Map.Entry<String, Part> mapEntry : parts.entrySet()) {
-            if (mapEntry.getKey().startsWith(idPrefix)) {
-                return mapEntry.getValue();
+        Part[] sorted = getPartsSortedById();
+        Part best = null;
+        for (int i = firstIndexNotBefore(sorted, idPrefix); i < sorted.length && sorted[i].id().startsWith(idPrefix); i++) {
+            if (best == null || sorted[i].id().length() < best.id().length()) {
+                best = sorted[i];
             }
         }
-        return null;
+        return best;
+    }
+
+    /**
+     * Binary search for the first part with an ID that is not before {@code id}
+     */
+    private static int firstIndexNotBefore(Part[] sorted, String id) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid].id().compareTo(id) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
     }
 
     public Element getElementById(String id) {
-        Element element = elements.get(id);
+        Element element = tryGetElementById(id);
         if (element == null) {
             throw new NoSuchElementException("No element found with ID " + id);
         }
@@ -179,7 +568,7 @@ public class PartsCsvDatabase {
      * 
      */
     public Element getElementByPartColourId(String partId, String colourId) {
-        Element element = elementByPartColour.get(new PartColourId(partId, colourId));
+        Element element = tryGetElementByPartColourId(partId, colourId);
         if (element == null) {
             throw new NoSuchElementException("No element found for part ID " + partId + " and colour ID " + colourId);
         }
@@ -187,10 +576,38 @@ public class PartsCsvDatabase {
     }
 
     /**
-     * Get an element by part and colour ID, returning null if not found
+     * Get an element by part and colour ID, returning null if not found. If there are several,
+     * the one that was read last is returned.
      */
     public Element tryGetElementByPartColourId(String partId, String colourId) {
-        Element element = elementByPartColour.get(new PartColourId(partId, colourId));
-        return element;
+        int row = elements.findRow(partId, colourId);
+        return row < 0 ? null : elements.get(row);
+    }
+
+    /**
+     * Get the element with a part and colour ID that comes last in an order, returning null if not found
+     * @param preference order of elements, e.g. {@link #NEWEST_ELEMENT_LAST}
+     */
+    public Element tryGetElementByPartColourId(String partId, String colourId, Comparator<Element> preference) {
+        Element best = null;
+        for (int row : elements.findRows(partId, colourId)) {
+            Element element = elements.get(row);
+            if (best == null || preference.compare(element, best) >= 0) {
+                best = element;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Get all elements with a part and colour ID, in the order they were read
+     */
+    public List<Element> getElementsByPartColourId(String partId, String colourId) {
+        int[] rows = elements.findRows(partId, colourId);
+        List<Element> matches = new ArrayList<>(rows.length);
+        for (int row : rows) {
+            matches.add(elements.get(row));
+        }
+        return matches;
     }
 }
@@ -15,48 +15,427 @@ limitations under the License.
 */
 package mrpolyonymous.labelgenerator;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.zip.GZIPInputStream;
 
+/**
+ * Downloads the Rebrickable CSV data dumps if required and loads them into a {@link PartsCsvDatabase}.
+ * <p>
+ * Previously extracted .csv files are always preferred if present. Otherwise the downloaded
+ * .csv.gz files are parsed directly, unless extraction was requested, so the data folder only
+ * needs to hold the compressed dumps. The parts and elements files are parsed on all cores: extracted
+ * files are memory mapped, and compressed files are decompressed into memory first.
+ * <p>
+ * The databases returned are frozen, see {@link PartsCsvDatabase#freeze()}.
+ */
 public class PartsCsvDatabaseCreator {
+    /** Buffer size for decompressing data files. The default of 512 bytes is very slow. */
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+
+    /** Names of the Rebrickable data files the database is made from */
+    private static final List<String> DATA_FILES = List.of("colors", "part_categories", "parts", "elements");
+
+    /** Binary snapshot of the database read from the data files */
+    static final String SNAPSHOT_FILE_NAME = "parts_db.snapshot";
+
+    /** Folder of dated catalogues, see {@link CatalogueHistory} */
+    static final String HISTORY_FOLDER_NAME = "history";
+
     final File dataFolder;
+    /** Whether to extract .csv.gz files to .csv files before reading them */
+    final boolean extractCsv;
 
     public PartsCsvDatabaseCreator(File dataFolder) {
+        this(dataFolder, false);
+    }
+
+    /**
+     * @param extractCsv if true, write the decompressed .csv file next to each downloaded .csv.gz
+     *  file and read from that, otherwise read the compressed file directly. Extracting saves
+     *  decompressing the files again on later runs.
+     */
+    public PartsCsvDatabaseCreator(File dataFolder, boolean extractCsv) {
         this.dataFolder = dataFolder;
+        this.extractCsv = extractCsv;
     }
 
     public PartsCsvDatabase readRebrickablePartsData(Fetcher fetcher) throws IOException {
-        fetchAndUnzipCsv(fetcher, "colors");
-        fetchAndUnzipCsv(fetcher, "part_categories");
-        fetchAndUnzipCsv(fetcher, "parts");
-        fetchAndUnzipCsv(fetcher, "elements");
-        
         PartsCsvDatabase partsDatabase = new PartsCsvDatabase();
-        partsDatabase.readColours(new File(dataFolder, "colors.csv"));
-        partsDatabase.readPartCategories(new File(dataFolder, "part_categories.csv"));
-        partsDatabase.readFullPartsList(new File(dataFolder, "parts.csv"));
-        partsDatabase.readElements(new File(dataFolder, "elements.csv"));
+        fetchCsvGz(fetcher, "colors");
+        readCsv("colors", partsDatabase::readColours, null);
+        fetchCsvGz(fetcher, "part_categories");
+        readCsv("part_categories", partsDatabase::readPartCategories, null);
+        fetchCsvGz(fetcher, "parts");
+        readCsv("parts", null, partsDatabase::readFullPartsList);
+        fetchCsvGz(fetcher, "elements");
+        readCsv("elements", null, csvData -> partsDatabase.readElements(csvData, PartIdFilter.ALL));
+        return partsDatabase.freeze();
+    }
+
+    /**
+     * Same as {@link #readRebrickablePartsDataConcurrently(Fetcher)}, but a binary snapshot of the
+     * database is saved after reading the data files and loaded instead of them on later runs, until
+     * the data files change. When they do, the previous snapshot is updated with the rows that changed.
+     */
+    public PartsCsvDatabase readRebrickablePartsDataCached(Fetcher fetcher) throws IOException {
+        return readRebrickablePartsDataCached(fetcher, PartIdFilter.ALL).freeze();
+    }
+
+    /**
+     * Same as {@link #readRebrickablePartsDataCached(Fetcher)}, but only the elements of the given parts
+     * are kept. Elements are by far the biggest table, so this makes the size of the database depend
+     * on the size of a parts collection rather than on the whole catalogue.
+     */
+    public PartsCsvDatabase readRebrickablePartsDataCached(Fetcher fetcher, Collection<String> partIds)
+            throws IOException {
+        return readRebrickablePartsDataCached(fetcher, PartIdFilter.of(partIds)).freeze();
+    }
+
+    private PartsCsvDatabase readRebrickablePartsDataCached(Fetcher fetcher, PartIdFilter partIdFilter)
+            throws IOException {
+        PartsCsvDatabaseSnapshot snapshot = new PartsCsvDatabaseSnapshot(new File(dataFolder, SNAPSHOT_FILE_NAME));
+        List<File> sourceFiles = localSourceFiles();
+        if (sourceFiles != null) {
+            long startTime = System.nanoTime();
+            PartsCsvDatabase partsDatabase = snapshot.loadIfCurrent(sourceFiles, partIdFilter);
+            if (partsDatabase != null) {
+                System.out.println("Loaded parts database snapshot in " + millisSince(startTime) + " ms");
+                return partsDatabase;
+            }
+        }
+
+        PartsCsvDatabase partsDatabase = updatePreviousSnapshot(fetcher, snapshot);
+        if (partsDatabase == null) {
+            partsDatabase = readRebrickablePartsDataConcurrently(fetcher);
+        }
+        try {
+            new CatalogueHistory(new File(dataFolder, HISTORY_FOLDER_NAME)).save(partsDatabase,
+                    catalogueDate(localSourceFiles()));
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Could not save catalogue history; ignoring");
+        }
+        try {
+            snapshot.save(partsDatabase, localSourceFiles());
+        } catch (IOException e) {
+            // Not fatal, the data files will just be read again next time
+            e.printStackTrace();
+            System.err.println("Could not save parts database snapshot; ignoring");
+            return partsDatabase;
+        }
+        if (partIdFilter != PartIdFilter.ALL) {
+            // The snapshot has to hold all elements, so reload it to drop the ones that aren't wanted
+            PartsCsvDatabase filteredDatabase = snapshot.loadIfCurrent(localSourceFiles(), partIdFilter);
+            if (filteredDatabase != null) {
+                return filteredDatabase;
+            }
+        }
         return partsDatabase;
     }
 
-    private void fetchAndUnzipCsv(Fetcher fetcher, String dataFile) throws IOException {
+    /**
+     * Load the catalogue as it was on a date, from the catalogues saved each time new data files were
+     * read by {@link #readRebrickablePartsDataCached(Fetcher)}. For use as the previous database
+     * in {@link PartsDiff}.
+     * @return the latest catalogue saved on or before the date, or null if there is none
+     */
+    public PartsCsvDatabase readCatalogueAsOf(LocalDate date) throws IOException {
+        PartsCsvDatabase partsDatabase = new CatalogueHistory(new File(dataFolder, HISTORY_FOLDER_NAME)).load(date);
+        return partsDatabase == null ? null : partsDatabase.freeze();
+    }
 
-        String gzipFileName = dataFile + ".csv.gz";
-        File gzipFile = new File(dataFolder, gzipFileName);
-        String csvFileName = dataFile + ".csv";
-        File csvFile = new File(dataFolder, csvFileName);
-        
+    /**
+     * Find the parts in a list of sets from the Rebrickable inventory data files, downloading them if
+     * required. Spare parts are not included. See {@link SetInventories}.
+     * @param setNums Rebrickable set numbers like 75192-1
+     */
+    List<SetInventories.InventoryPart> readSetInventoryParts(Fetcher fetcher, Collection<String> setNums)
+            throws IOException {
+        long startTime = System.nanoTime();
+        SetInventories setInventories = new SetInventories(setNums, false);
+        fetchCsvGz(fetcher, "inventories");
+        fetchCsvGz(fetcher, "inventory_sets");
+        fetchCsvGz(fetcher, "inventory_parts");
+        try (BufferedReader inventories = openLocalCsv("inventories");
+                BufferedReader inventorySets = openLocalCsv("inventory_sets")) {
+            Set<String> missingSets = setInventories.readInventories(inventories, inventorySets);
+            if (!missingSets.isEmpty()) {
+                System.err.println("No inventory found for sets " + missingSets);
+            }
+        }
+        List<SetInventories.InventoryPart> inventoryParts;
+        try (BufferedReader br = openLocalCsv("inventory_parts")) {
+            inventoryParts = setInventories.readInventoryParts(br);
+        }
+        System.out.println("Found " + inventoryParts.size() + " inventory parts for " + setNums.size() + " sets in "
+                + millisSince(startTime) + " ms");
+        return inventoryParts;
+    }
+
+    /**
+     * Download if needed and read the relationships between parts, such as prints and alternate molds
+     */
+    PartRelationships readPartRelationships(Fetcher fetcher) throws IOException {
+        long startTime = System.nanoTime();
+        fetchCsvGz(fetcher, "part_relationships");
+        PartRelationships relationships;
+        try (BufferedReader br = openLocalCsv("part_relationships")) {
+            relationships = PartRelationships.read(br);
+        }
+        System.out.println("Loaded part_relationships in " + millisSince(startTime) + " ms");
+        return relationships;
+    }
+
+    /**
+     * Bring the database in a snapshot up to date with the current data files by applying only the
+     * rows that changed, rather than building a new database. Tables whose data file has the same
+     * contents as when the snapshot was saved aren't read at all; usually that is every table except
+     * elements. Lines of the other tables are compared with the row hashes saved in the snapshot, so
+     * only changed rows are parsed. The whole snapshot is still written again afterwards.
+     * @return the updated database, or null if there is no previous snapshot
+     */
+    private PartsCsvDatabase updatePreviousSnapshot(Fetcher fetcher, PartsCsvDatabaseSnapshot snapshot)
+            throws IOException {
+        CatalogueChanges changes = snapshot.loadForUpdate();
+        if (changes == null) {
+            return null;
+        }
+        PartsCsvDatabase partsDatabase = changes.partsDatabase();
+
+        long startTime = System.nanoTime();
+        for (String dataFile : DATA_FILES) {
+            fetchCsvGz(fetcher, dataFile);
+        }
+        boolean[] unchangedSources = snapshot.unchangedSources(localSourceFiles());
+        List<String> unchangedTables = new ArrayList<>();
+        for (int i = 0; i < DATA_FILES.size(); i++) {
+            String dataFile = DATA_FILES.get(i);
+            if (unchangedSources[i]) {
+                unchangedTables.add(dataFile);
+                continue;
+            }
+            try (BufferedReader br = openLocalCsv(dataFile)) {
+                switch (dataFile) {
+                    case "colors" -> changes.diffColours(br);
+                    case "part_categories" -> changes.diffPartCategories(br);
+                    case "parts" -> changes.diffParts(br);
+                    case "elements" -> changes.diffElements(br);
+                    default -> throw new IllegalStateException("No diff for data file " + dataFile);
+                }
+            }
+        }
+        changes.apply();
+        System.out.println("Updated parts database snapshot in " + millisSince(startTime) + " ms, " + changes
+                + (unchangedTables.isEmpty() ? "" : "; unchanged: " + String.join(", ", unchangedTables)));
+        return partsDatabase;
+    }
+
+    /**
+     * The date of a catalogue, which is the date the newest of its data files was published. Downloaded
+     * files are given the publication time as their modification time.
+     */
+    private static LocalDate catalogueDate(List<File> sourceFiles) {
+        long newest = 0;
+        for (File sourceFile : sourceFiles) {
+            newest = Math.max(newest, sourceFile.lastModified());
+        }
+        return LocalDate.ofInstant(Instant.ofEpochMilli(newest), ZoneId.systemDefault());
+    }
+
+    /**
+     * The local file each table is read from: the extracted CSV file if there is one, otherwise the
+     * compressed file. Returns null if any table has not been downloaded yet.
+     */
+    private List<File> localSourceFiles() {
+        List<File> sourceFiles = new ArrayList<>(DATA_FILES.size());
+        for (String dataFile : DATA_FILES) {
+            File csvFile = new File(dataFolder, dataFile + ".csv");
+            File gzipFile = new File(dataFolder, dataFile + ".csv.gz");
+            if (csvFile.exists()) {
+                sourceFiles.add(csvFile);
+            } else if (gzipFile.exists()) {
+                sourceFiles.add(gzipFile);
+            } else {
+                return null;
+            }
+        }
+        return sourceFiles;
+    }
+
+    /** Reads one CSV data file into the database */
+    @FunctionalInterface
+    private interface CsvReader {
+        void read(BufferedReader br) throws IOException;
+    }
+
+    /** Reads one whole CSV data file held in memory into the database */
+    @FunctionalInterface
+    private interface CsvDataReader {
+        void read(ByteBuffer csvData) throws IOException;
+    }
+
+    /**
+     * Same as {@link #readRebrickablePartsData(Fetcher)}, but all of the data files are downloaded,
+     * decompressed and parsed at the same time. The only waiting is where tables share ID symbol
+     * tables: parts are parsed after part categories, and elements after colours.
+     */
+    public PartsCsvDatabase readRebrickablePartsDataConcurrently(Fetcher fetcher) throws IOException {
+        return readRebrickablePartsDataConcurrently(fetcher, PartIdFilter.ALL).freeze();
+    }
+
+    /**
+     * Same as {@link #readRebrickablePartsDataConcurrently(Fetcher)}, but only the elements of the
+     * given parts are kept. Other rows of the elements file are skipped before any objects are made
+     * for them.
+     */
+    public PartsCsvDatabase readRebrickablePartsDataConcurrently(Fetcher fetcher, Collection<String> partIds)
+            throws IOException {
+        return readRebrickablePartsDataConcurrently(fetcher, PartIdFilter.of(partIds)).freeze();
+    }
+
+    private PartsCsvDatabase readRebrickablePartsDataConcurrently(Fetcher fetcher, PartIdFilter partIdFilter)
+            throws IOException {
+        PartsCsvDatabase partsDatabase = new PartsCsvDatabase();
+        long startTime = System.nanoTime();
+
+        ExecutorService parseService = Executors.newFixedThreadPool(4);
+        try {
+            CompletableFuture<Void> noDependency = CompletableFuture.completedFuture(null);
+            CompletableFuture<Void> colours = loadCsvAsync(fetcher, parseService, noDependency, "colors",
+                    partsDatabase::readColours, null);
+            CompletableFuture<Void> categories = loadCsvAsync(fetcher, parseService, noDependency,
+                    "part_categories", partsDatabase::readPartCategories, null);
+            List<CompletableFuture<Void>> loads = new ArrayList<>();
+            loads.add(colours);
+            loads.add(categories);
+            loads.add(loadCsvAsync(fetcher, parseService, categories, "parts", null,
+                    partsDatabase::readFullPartsList));
+            loads.add(loadCsvAsync(fetcher, parseService, colours, "elements", null,
+                    csvData -> partsDatabase.readElements(csvData, partIdFilter)));
+
+            CompletableFuture.allOf(loads.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException ioEx) {
+                throw ioEx;
+            }
+            throw e;
+        } finally {
+            parseService.shutdown();
+        }
+
+        System.out.println("Loaded parts data in " + millisSince(startTime) + " ms");
+        return partsDatabase;
+    }
+
+    /**
+     * Download and parse a data file. Parsing starts once both the download and {@code dependency}
+     * are complete.
+     */
+    private CompletableFuture<Void> loadCsvAsync(Fetcher fetcher, ExecutorService parseService,
+            CompletableFuture<Void> dependency, String dataFile, CsvReader csvReader, CsvDataReader csvDataReader) {
+        long startTime = System.nanoTime();
+        CompletableFuture<File> ready = fetchCsvGzAsync(fetcher, dataFile)
+                .thenCombine(dependency, (gzipFile, v) -> gzipFile);
+        return ready.thenAcceptAsync(gzipFile -> {
+            long parseStartTime = System.nanoTime();
+            try {
+                readCsv(dataFile, csvReader, csvDataReader);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+            long endTime = System.nanoTime();
+            System.out.println("Loaded " + dataFile + " in " + millisSince(startTime, endTime) + " ms (download and wait "
+                    + millisSince(startTime, parseStartTime) + " ms, parse "
+                    + millisSince(parseStartTime, endTime) + " ms)");
+        }, parseService);
+    }
+
+    private static long millisSince(long startNanos) {
+        return millisSince(startNanos, System.nanoTime());
+    }
+
+    private static long millisSince(long startNanos, long endNanos) {
+        return (endNanos - startNanos) / 1_000_000;
+    }
+
+    /**
+     * Read a data file that has already been downloaded. The big data files are read on multiple cores
+     * by a {@code csvDataReader}: an extracted CSV file is memory mapped, and a compressed one is
+     * decompressed into memory first. The small ones are read as a stream by a {@code csvReader}.
+     */
+    private void readCsv(String dataFile, CsvReader csvReader, CsvDataReader csvDataReader) throws IOException {
+        if (csvDataReader == null) {
+            try (BufferedReader br = openLocalCsv(dataFile)) {
+                csvReader.read(br);
+            }
+            return;
+        }
+
+        File csvFile = new File(dataFolder, dataFile + ".csv");
+        File gzipFile = new File(dataFolder, dataFile + ".csv.gz");
+        if (!csvFile.exists() && extractCsv) {
+            unzipCsv(gzipFile, csvFile);
+        }
+        ByteBuffer csvData;
+        if (csvFile.exists()) {
+            System.out.println("Reading CSV file " + csvFile + " in parallel");
+            csvData = ChunkedCsvParser.map(csvFile);
+        } else {
+            System.out.println("Reading compressed CSV file " + gzipFile.getAbsolutePath() + " in parallel");
+            try (GZIPInputStream gzis = new GZIPInputStream(new FileInputStream(gzipFile), GZIP_BUFFER_SIZE)) {
+                csvData = ByteBuffer.wrap(gzis.readAllBytes());
+            }
+        }
+        csvDataReader.read(csvData);
+    }
+
+    /**
+     * Open a Rebrickable data file that has already been downloaded
+     */
+    private BufferedReader openLocalCsv(String dataFile) throws IOException {
+        File csvFile = new File(dataFolder, dataFile + ".csv");
         if (csvFile.exists()) {
             System.out.println("CSV file " + csvFile + " exists, not downloading");
-            return;
+            return new BufferedReader(new InputStreamReader(new FileInputStream(csvFile), StandardCharsets.UTF_8));
         }
-        
-        if (!gzipFile.exists()) {
+
+        File gzipFile = new File(dataFolder, dataFile + ".csv.gz");
+        if (extractCsv) {
+            unzipCsv(gzipFile, csvFile);
+            return new BufferedReader(new InputStreamReader(new FileInputStream(csvFile), StandardCharsets.UTF_8));
+        }
+
+        System.out.println("Reading compressed CSV file " + gzipFile.getAbsolutePath());
+        return new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new FileInputStream(gzipFile), GZIP_BUFFER_SIZE),
+                StandardCharsets.UTF_8));
+    }
+
+    private File fetchCsvGz(Fetcher fetcher, String dataFile) throws IOException {
+        String gzipFileName = dataFile + ".csv.gz";
+        File gzipFile = new File(dataFolder, gzipFileName);
+
+        if (!gzipFile.exists() && !new File(dataFolder, dataFile + ".csv").exists()) {
             Future<File> gzipFileFuture = fetcher.fetchFromRebrickableCdnDownloadsAsync(gzipFileName, gzipFile);
             try {
                 gzipFileFuture.get();
@@ -69,11 +448,25 @@ public class PartsCsvDatabaseCreator {
                 throw new IOException("Failed to fetch data file " + dataFile, e);
             }
         }
-        
-        try (GZIPInputStream gzis = new GZIPInputStream(new FileInputStream(gzipFile));
+        return gzipFile;
+    }
+
+    private CompletableFuture<File> fetchCsvGzAsync(Fetcher fetcher, String dataFile) {
+        String gzipFileName = dataFile + ".csv.gz";
+        File gzipFile = new File(dataFolder, gzipFileName);
+        if (gzipFile.exists() || new File(dataFolder, dataFile + ".csv").exists()) {
+            return CompletableFuture.completedFuture(gzipFile);
+        }
+        return fetcher.fetchFromRebrickableCdnAsync("downloads/" + gzipFileName, gzipFile);
+    }
+
+    private void unzipCsv(File gzipFile, File csvFile) throws IOException {
+        try (GZIPInputStream gzis = new GZIPInputStream(new FileInputStream(gzipFile), GZIP_BUFFER_SIZE);
                 FileOutputStream csvStream = new FileOutputStream(csvFile)) {
             gzis.transferTo(csvStream);
         }
+        // Keep the publication time, see catalogueDate
+        csvFile.setLastModified(gzipFile.lastModified());
 
         System.out.println("Extracted CSV file " + csvFile.getAbsolutePath());
     }
@@ -0,0 +1,551 @@
+/*
+Copyright 2024 mrpolyonymous
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package mrpolyonymous.labelgenerator;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary snapshot of a {@link PartsCsvDatabase}, so that later runs can skip parsing the CSV data files.
+ * <p>
+ * A snapshot records the size, modification time and SHA-256 hash of each data file it was built
+ * from and is only used while those files are unchanged. The modification time is checked first
+ * so the files only need to be hashed if they have been touched. If a touched file has the same
+ * hash, its new modification time is written to the snapshot so it isn't hashed again.
+ * <p>
+ * Snapshots are read into memory rather than memory mapped, so no mapping holds the file open when a
+ * new snapshot replaces it.
+ * <p>
+ * The format is a header of source file keys followed by the colours, categories, parts and elements
+ * tables, then the {@link CatalogueChanges.RowHashes} of each table, ending with a CRC32 of everything
+ * before it. The row hashes are only read to update the snapshot when the data files change. Numbers
+ * are written as varints and each distinct string is written once, with later uses written as a
+ * reference to the first.
+ */
+class PartsCsvDatabaseSnapshot {
+
+    private static final int MAGIC = 0x4C474442; // "LGDB"
+    /**
+     * Version of the snapshot format. {@link CatalogueHistory} stores tables in the same formats and
+     * has its own version, which has to change too if a table format changes.
+     */
+    static final int VERSION = 3;
+
+    /** Size, modification time and hash of a data file as recorded in a snapshot */
+    private record SourceKey(String name, long size, long lastModified, byte[] sha256, int lastModifiedPosition) {
+
+        /**
+         * Whether a file has the same contents as when the key was recorded. The file is only hashed
+         * if its modification time has changed.
+         */
+        boolean matches(File file) throws IOException {
+            if (!file.getName().equals(name) || !file.isFile() || file.length() != size) {
+                return false;
+            }
+            return file.lastModified() == lastModified || Arrays.equals(sha256, PartsCsvDatabaseSnapshot.sha256(file));
+        }
+    }
+
+    private final File snapshotFile;
+
+    PartsCsvDatabaseSnapshot(File snapshotFile) {
+        this.snapshotFile = snapshotFile;
+    }
+
+    private static byte[] sha256(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+        try (InputStream is = new DigestInputStream(Files.newInputStream(file.toPath()), digest)) {
+            is.transferTo(OutputStream.nullOutputStream());
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Write a snapshot of the database, replacing any existing snapshot.
+     * @param sourceFiles the data files the database was read from
+     */
+    void save(PartsCsvDatabase partsDatabase, List<File> sourceFiles) throws IOException {
+        File tempFile = new File(snapshotFile.getPath() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new CheckedOutputStream(new FileOutputStream(tempFile), crc), 64 * 1024))) {
+            SnapshotWriter writer = new SnapshotWriter(out);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            writer.writeVarint(sourceFiles.size());
+            for (File sourceFile : sourceFiles) {
+                writer.writeString(sourceFile.getName());
+                out.writeLong(sourceFile.length());
+                out.writeLong(sourceFile.lastModified());
+                out.write(sha256(sourceFile));
+            }
+
+            writeColours(writer, partsDatabase);
+            writePartCategories(writer, partsDatabase);
+            writeParts(writer, partsDatabase);
+            writeElements(writer, partsDatabase);
+
+            writeRowHashes(writer, CatalogueChanges.colourHashes(partsDatabase));
+            writeRowHashes(writer, CatalogueChanges.partCategoryHashes(partsDatabase));
+            writeRowHashes(writer, CatalogueChanges.partHashes(partsDatabase));
+            writeRowHashes(writer, CatalogueChanges.elementHashes(partsDatabase));
+
+            out.flush();
+            // Checksum of everything written so far
+            out.writeLong(crc.getValue());
+        }
+        Files.move(tempFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        System.out.println("Saved parts database snapshot " + snapshotFile + ", " + snapshotFile.length() + " bytes");
+    }
+
+    /**
+     * Load the snapshot if it exists and was built from the given data files in their current state
+     * @return the database, or null if there is no usable snapshot
+     */
+    PartsCsvDatabase loadIfCurrent(List<File> sourceFiles) throws IOException {
+        return loadIfCurrent(sourceFiles, PartIdFilter.ALL);
+    }
+
+    /**
+     * Same as {@link #loadIfCurrent(List)}, but only elements for parts that pass a filter are loaded
+     */
+    PartsCsvDatabase loadIfCurrent(List<File> sourceFiles, PartIdFilter partIdFilter) throws IOException {
+        return load(sourceFiles, partIdFilter);
+    }
+
+    /**
+     * Load the snapshot even if the data files have changed since it was saved, with the row hashes
+     * saved with it, so that it can be updated with the rows that changed
+     * @return changes to the database in the snapshot, not yet diffed, or null if there is no usable snapshot
+     */
+    CatalogueChanges loadForUpdate() throws IOException {
+        SnapshotReader reader = openSnapshot();
+        if (reader == null) {
+            return null;
+        }
+        try {
+            readSourceKeys(reader);
+            PartsCsvDatabase partsDatabase = readTables(reader, PartIdFilter.ALL);
+            CatalogueChanges.RowHashes colourHashes = readRowHashes(reader);
+            CatalogueChanges.RowHashes partCategoryHashes = readRowHashes(reader);
+            CatalogueChanges.RowHashes partHashes = readRowHashes(reader);
+            CatalogueChanges.RowHashes elementHashes = readRowHashes(reader);
+            return new CatalogueChanges(partsDatabase, colourHashes, partCategoryHashes, partHashes, elementHashes);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            System.out.println("Ignoring unreadable parts database snapshot " + snapshotFile + ": " + e);
+            return null;
+        }
+    }
+
+    private PartsCsvDatabase load(List<File> sourceFiles, PartIdFilter partIdFilter) throws IOException {
+        SnapshotReader reader = openSnapshot();
+        if (reader == null) {
+            return null;
+        }
+        try {
+            List<SourceKey> sourceKeys = readSourceKeys(reader);
+            if (!sourcesMatch(sourceKeys, sourceFiles)) {
+                System.out.println("Data files changed since parts database snapshot " + snapshotFile + " was saved");
+                return null;
+            }
+            // The row hashes after the tables aren't needed
+            PartsCsvDatabase partsDatabase = readTables(reader, partIdFilter);
+            updateModificationTimes(reader.buffer, sourceKeys, sourceFiles);
+            return partsDatabase;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            System.out.println("Ignoring unreadable parts database snapshot " + snapshotFile + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Find which data files have the same contents as the data files the snapshot was built from,
+     * without loading the snapshot
+     * @return whether each data file is unchanged, all false if there is no usable snapshot
+     */
+    boolean[] unchangedSources(List<File> sourceFiles) throws IOException {
+        boolean[] unchanged = new boolean[sourceFiles.size()];
+        SnapshotReader reader = openSnapshot();
+        if (reader == null) {
+            return unchanged;
+        }
+        List<SourceKey> sourceKeys;
+        try {
+            sourceKeys = readSourceKeys(reader);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            return unchanged;
+        }
+        for (int i = 0; i < sourceFiles.size() && i < sourceKeys.size(); i++) {
+            unchanged[i] = sourceKeys.get(i).matches(sourceFiles.get(i));
+        }
+        return unchanged;
+    }
+
+    /**
+     * Read the snapshot file and check its checksum and version
+     * @return a reader positioned after the version, or null if there is no usable snapshot
+     */
+    private SnapshotReader openSnapshot() throws IOException {
+        if (!snapshotFile.isFile()) {
+            return null;
+        }
+        long fileSize = snapshotFile.length();
+        if (fileSize > Integer.MAX_VALUE - 8 || fileSize < 16) {
+            System.out.println("Ignoring invalid parts database snapshot " + snapshotFile);
+            return null;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(snapshotFile.toPath()));
+        int crcPosition = buffer.capacity() - Long.BYTES;
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate().limit(crcPosition));
+        if (crc.getValue() != buffer.getLong(crcPosition)) {
+            System.out.println("Ignoring corrupt parts database snapshot " + snapshotFile);
+            return null;
+        }
+        buffer.limit(crcPosition);
+
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            System.out.println("Ignoring parts database snapshot " + snapshotFile + " from a different version");
+            return null;
+        }
+        return new SnapshotReader(buffer);
+    }
+
+    private static List<SourceKey> readSourceKeys(SnapshotReader reader) {
+        int numSources = reader.readVarint();
+        List<SourceKey> sourceKeys = new ArrayList<>(numSources);
+        for (int i = 0; i < numSources; i++) {
+            String name = reader.readString();
+            long size = reader.buffer.getLong();
+            int lastModifiedPosition = reader.buffer.position();
+            long lastModified = reader.buffer.getLong();
+            byte[] sha256 = new byte[32];
+            reader.buffer.get(sha256);
+            sourceKeys.add(new SourceKey(name, size, lastModified, sha256, lastModifiedPosition));
+        }
+        return sourceKeys;
+    }
+
+    private static boolean sourcesMatch(List<SourceKey> sourceKeys, List<File> sourceFiles) throws IOException {
+        if (sourceKeys.size() != sourceFiles.size()) {
+            return false;
+        }
+        for (int i = 0; i < sourceFiles.size(); i++) {
+            if (!sourceKeys.get(i).matches(sourceFiles.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Write the current modification times of data files that were touched but have the same hash
+     * into the snapshot, and update its checksum, so later loads don't hash them again. Only the
+     * changed bytes are written, in place. If that is cut short the checksum no longer matches and the
+     * snapshot is rebuilt next time rather than misread. Failing to update it isn't fatal.
+     * @param snapshotData the contents of the snapshot file, as read by {@link #openSnapshot()}
+     */
+    private void updateModificationTimes(ByteBuffer snapshotData, List<SourceKey> sourceKeys,
+            List<File> sourceFiles) {
+        boolean touched = false;
+        for (int i = 0; i < sourceFiles.size(); i++) {
+            touched |= sourceFiles.get(i).lastModified() != sourceKeys.get(i).lastModified();
+        }
+        if (!touched) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(snapshotData.array());
+        for (int i = 0; i < sourceFiles.size(); i++) {
+            buffer.putLong(sourceKeys.get(i).lastModifiedPosition(), sourceFiles.get(i).lastModified());
+        }
+        int crcPosition = buffer.capacity() - Long.BYTES;
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, crcPosition);
+        buffer.putLong(crcPosition, crc.getValue());
+
+        try (FileChannel channel = FileChannel.open(snapshotFile.toPath(), StandardOpenOption.WRITE)) {
+            for (SourceKey sourceKey : sourceKeys) {
+                writeAt(channel, buffer, sourceKey.lastModifiedPosition(), Long.BYTES);
+            }
+            writeAt(channel, buffer, crcPosition, Long.BYTES);
+            channel.force(false);
+        } catch (IOException e) {
+            System.err.println("Could not update parts database snapshot " + snapshotFile + ": " + e);
+        }
+    }
+
+    /**
+     * Write {@code length} bytes of a buffer starting at {@code position} to the same position in a file
+     */
+    private static void writeAt(FileChannel channel, ByteBuffer buffer, int position, int length)
+            throws IOException {
+        ByteBuffer bytes = buffer.duplicate().limit(position + length).position(position);
+        while (bytes.hasRemaining()) {
+            channel.write(bytes, bytes.position());
+        }
+    }
+
+    private static PartsCsvDatabase readTables(SnapshotReader reader, PartIdFilter partIdFilter) {
+        PartsCsvDatabase partsDatabase = new PartsCsvDatabase();
+        readColours(reader, partsDatabase);
+        readPartCategories(reader, partsDatabase);
+        readParts(reader, partsDatabase);
+        readElements(reader, partsDatabase, partIdFilter);
+        return partsDatabase;
+    }
+
+    // Each table is written as the number of rows followed by the rows. Rows are written in ID order,
+    // whatever order they were loaded in, so that the same table always gives the same bytes.
+
+    static void writeColours(SnapshotWriter writer, PartsCsvDatabase partsDatabase) throws IOException {
+        List<Colour> colours = new ArrayList<>(partsDatabase.getColours());
+        colours.sort(Comparator.comparing(Colour::id));
+        writer.writeVarint(colours.size());
+        for (Colour colour : colours) {
+            writer.writeString(colour.id());
+            writer.writeString(colour.description());
+            writer.writeString(colour.rgb());
+            writer.writeVarint(colour.transparent() ? 1 : 0);
+        }
+    }
+
+    static void readColours(SnapshotReader reader, PartsCsvDatabase partsDatabase) {
+        partsDatabase.checkNotFrozen();
+        int numColours = reader.readVarint();
+        for (int i = 0; i < numColours; i++) {
+            partsDatabase.putColour(new Colour(reader.readString(), reader.readString(), reader.readString(),
+                    reader.readVarint() != 0));
+        }
+    }
+
+    static void writePartCategories(SnapshotWriter writer, PartsCsvDatabase partsDatabase) throws IOException {
+        List<PartCategory> categories = new ArrayList<>(partsDatabase.getPartCategories());
+        categories.sort(Comparator.comparing(PartCategory::id));
+        writer.writeVarint(categories.size());
+        for (PartCategory category : categories) {
+            writer.writeString(category.id());
+            writer.writeString(category.description());
+        }
+    }
+
+    static void readPartCategories(SnapshotReader reader, PartsCsvDatabase partsDatabase) {
+        partsDatabase.checkNotFrozen();
+        int numCategories = reader.readVarint();
+        for (int i = 0; i < numCategories; i++) {
+            partsDatabase.putPartCategory(new PartCategory(reader.readString(), reader.readString()));
+        }
+    }
+
+    static void writeParts(SnapshotWriter writer, PartsCsvDatabase partsDatabase) throws IOException {
+        List<Part> parts = new ArrayList<>(partsDatabase.getParts());
+        parts.sort(Comparator.comparing(Part::id));
+        writer.writeVarint(parts.size());
+        for (Part part : parts) {
+            writer.writeString(part.id());
+            writer.writeString(part.idIgnoringPrint());
+            writer.writeString(part.description());
+            writer.writeString(part.partCategoryId());
+            Integer numericId = part.numericId();
+            if (numericId == null) {
+                writer.out.writeBoolean(false);
+            } else {
+                writer.out.writeBoolean(true);
+                // zig-zag so that the uncommon negative IDs don't take the full 5 bytes
+                writer.writeVarint((numericId << 1) ^ (numericId >> 31));
+            }
+        }
+    }
+
+    static void readParts(SnapshotReader reader, PartsCsvDatabase partsDatabase) {
+        partsDatabase.checkNotFrozen();
+        int numParts = reader.readVarint();
+        for (int i = 0; i < numParts; i++) {
+            String id = reader.readString();
+            String idIgnoringPrint = reader.readString();
+            String description = reader.readString();
+            String partCategoryId = reader.readString();
+            Integer numericId = null;
+            if (reader.buffer.get() != 0) {
+                int zigZag = reader.readVarint();
+                numericId = (zigZag >>> 1) ^ -(zigZag & 1);
+            }
+            partsDatabase.putPart(new Part(id, idIgnoringPrint, description, partCategoryId, numericId));
+        }
+    }
+
+    static void writeElements(SnapshotWriter writer, PartsCsvDatabase partsDatabase) throws IOException {
+        // Elements that are the result of a lookup by part and colour are written last, so that
+        // adding them back in order gives the same lookup results. Each group is in ID order.
+        List<Element> shadowedElements = new ArrayList<>();
+        List<Element> visibleElements = new ArrayList<>(partsDatabase.getElements().size());
+        for (Element element : partsDatabase.getElements()) {
+            if (element.equals(partsDatabase.tryGetElementByPartColourId(element.partId(), element.colourId()))) {
+                visibleElements.add(element);
+            } else {
+                shadowedElements.add(element);
+            }
+        }
+        shadowedElements.sort(Comparator.comparing(Element::id));
+        visibleElements.sort(Comparator.comparing(Element::id));
+        writer.writeVarint(shadowedElements.size() + visibleElements.size());
+        writer.writeElements(shadowedElements);
+        writer.writeElements(visibleElements);
+    }
+
+    static void readElements(SnapshotReader reader, PartsCsvDatabase partsDatabase, PartIdFilter partIdFilter) {
+        partsDatabase.checkNotFrozen();
+        int numElements = reader.readVarint();
+        for (int i = 0; i < numElements; i++) {
+            // Every string has to be read, even for skipped elements, because later strings can refer to them
+            String id = reader.readString();
+            String partId = reader.readString();
+            String colourId = reader.readString();
+            String designId = reader.readString();
+            if (partIdFilter.mightContain(partId)) {
+                partsDatabase.putElement(new Element(id, partId, colourId, designId));
+            }
+        }
+    }
+
+    static void writeRowHashes(SnapshotWriter writer, CatalogueChanges.RowHashes rowHashes) throws IOException {
+        writer.writeVarint(rowHashes.size());
+        for (int i = 0; i < rowHashes.size(); i++) {
+            writer.writeString(rowHashes.id(i));
+            writer.out.writeLong(rowHashes.hash(i));
+        }
+    }
+
+    static CatalogueChanges.RowHashes readRowHashes(SnapshotReader reader) {
+        int numRows = reader.readVarint();
+        String[] ids = new String[numRows];
+        long[] hashes = new long[numRows];
+        for (int i = 0; i < numRows; i++) {
+            ids[i] = reader.readString();
+            hashes[i] = reader.buffer.getLong();
+        }
+        return new CatalogueChanges.RowHashes(ids, hashes);
+    }
+
+    /**
+     * Writes varints and strings, where each distinct string is only written in full once
+     */
+    static class SnapshotWriter {
+        private final DataOutputStream out;
+        private final Map<String, Integer> stringIndexes = new HashMap<>();
+
+        SnapshotWriter(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void writeVarint(int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                out.writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte(value);
+        }
+
+        /**
+         * Strings are written as 0 followed by length and UTF-8 bytes the first time they are seen,
+         * and as 1 + the index of the first occurrence after that.
+         */
+        void writeString(String s) throws IOException {
+            Integer index = stringIndexes.get(s);
+            if (index != null) {
+                writeVarint(index + 1);
+                return;
+            }
+            stringIndexes.put(s, stringIndexes.size());
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarint(0);
+            writeVarint(bytes.length);
+            out.write(bytes);
+        }
+
+        void writeElements(List<Element> elements) throws IOException {
+            for (Element element : elements) {
+                writeString(element.id());
+                writeString(element.partId());
+                writeString(element.colourId());
+                writeString(element.designId());
+            }
+        }
+    }
+
+    static class SnapshotReader {
+        private final ByteBuffer buffer;
+        private final List<String> strings = new ArrayList<>();
+
+        SnapshotReader(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        int readVarint() {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                byte b = buffer.get();
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+        String readString() {
+            int reference = readVarint();
+            if (reference > 0) {
+                return strings.get(reference - 1);
+            }
+            int length = readVarint();
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            String s = new String(bytes, StandardCharsets.UTF_8);
+            strings.add(s);
+            return s;
+        }
+    }
+}
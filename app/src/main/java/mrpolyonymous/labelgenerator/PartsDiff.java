@@ -52,6 +52,7 @@ public class PartsDiff {
                 if (currentPart != null) {
                     System.err.println(currentPart);
                 } else {
+                    System.err.println("Closest descriptions: " + currentDb.findPartsByDescriptionWords(oldPart.description(), 3));
                     currentPart = currentDb.tryGetPartByIdPrefix(pcq.part().id());
                     System.err.println(currentPart);
                 }
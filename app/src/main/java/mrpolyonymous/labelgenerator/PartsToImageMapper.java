@@ -21,7 +21,6 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -39,7 +38,7 @@ import java.util.zip.ZipFile;
  * Map parts to images by using LDraw bundles. Generally fast, but can miss images for more complicated
  * or obscure parts that do not have a render in the LDraw bundles.
  */
-public class PartsToImageMapper {
+public class PartsToImageMapper implements AutoCloseable {
 
     /** Rebrickable ID for black */
     static final String COLOUR_BLACK = "0";
@@ -59,10 +58,9 @@ public class PartsToImageMapper {
     /** Part categories where an attempt is made to get the exact image, mostly in the case of prints */
     static final Set<String> DONT_SIMPLIFY_IMAGE_CATEGORIES;
 
-    /** Some parts have numbers that don't have an image, this maps them to
-       a close-enough image. */
-    static final Map<String, String> PART_NUM_TO_IMAGE_NUM;
-    
+    /** Most LDraw bundles kept open at once. The preferred colours are used for most parts and stay open. */
+    static final int MAX_OPEN_BUNDLES = 32;
+
     /** Colours known to be missing dedicated image files */
     static final Set<String> KNOWN_MISSING_COLOURS;
     static {
@@ -103,17 +101,6 @@ public class PartsToImageMapper {
         DONT_SIMPLIFY_IMAGE_CATEGORIES.add("61"); // Minifig Lower Body
         DONT_SIMPLIFY_IMAGE_CATEGORIES.add("60"); // Minifig Upper Body
         
-        // These mappings were discovered by hand.
-        // The mapping of standard part number to part number associated with the image seems
-        // to be internal to rebrickable.
-        PART_NUM_TO_IMAGE_NUM = new HashMap<>();
-        PART_NUM_TO_IMAGE_NUM.put("19798", "3940"); //Support 2 x 2 x 2 Stand with Reinforced Underside
-        PART_NUM_TO_IMAGE_NUM.put("47225", "47224c0"); //Pneumatic Cylinder with 2 Inlets and Rounded End Medium (48mm)
-        PART_NUM_TO_IMAGE_NUM.put("73590c02a", "73590a"); // Flexible Hose 8.5L with Tabbed Ends (Ends same color as Tube)
-        PART_NUM_TO_IMAGE_NUM.put("73983", "2429c01"); // Hinge Plate 1 x 4 Swivel Top / Base [Complete Assembly]
-        PART_NUM_TO_IMAGE_NUM.put("76320c01", "32181c03"); // Technic Shock Absorber 10L, Damped, Normal Spring
-        PART_NUM_TO_IMAGE_NUM.put("98560", "3684"); // Slope 75� 2 x 2 x 3 [Solid Studs]
-        
         // Not exhaustive, just ones I've run across. Revisit periodically in case files become available.
         KNOWN_MISSING_COLOURS = new HashSet<String>();
         KNOWN_MISSING_COLOURS.add("1059"); // Opal Trans-Purple
@@ -132,11 +119,25 @@ public class PartsToImageMapper {
     private final File ldrawBundleFolder;
 
     private final Set<Colour> missingColours;
+    /** Closest colour with an image bundle for each colour, built once the bundles are fetched */
+    private NearestColours nearestColours;
     
     private final Fetcher fetcher;
     private final PartsCsvDatabase partsDb;
+    private final PartRelationships relationships;
+    /** Open LDraw bundles, closed by {@link #close()} */
+    private final ZipFileCache ldrawBundles;
     
 	public PartsToImageMapper(File dataFolder, PartsCsvDatabase partsDb, Fetcher fetcher) {
+	    this(dataFolder, partsDb, PartRelationships.EMPTY, fetcher);
+	}
+
+	PartsToImageMapper(File dataFolder, PartsCsvDatabase partsDb, PartRelationships relationships, Fetcher fetcher) {
+	    this(dataFolder, partsDb, relationships, fetcher, MAX_OPEN_BUNDLES);
+	}
+
+	PartsToImageMapper(File dataFolder, PartsCsvDatabase partsDb, PartRelationships relationships, Fetcher fetcher,
+	        int maxOpenBundles) {
 	    try {
             this.dataFolder = dataFolder.getCanonicalFile();
         } catch (IOException e) {
@@ -148,7 +149,9 @@ public class PartsToImageMapper {
         }
 
 	    this.partsDb = partsDb;
+	    this.relationships = relationships;
 	    this.fetcher = fetcher;
+	    this.ldrawBundles = new ZipFileCache(maxOpenBundles);
 		
 		localImagesFolder = new File(this.dataFolder, "local_images");
 		localImagesFolder.mkdirs();
@@ -160,14 +163,23 @@ public class PartsToImageMapper {
 	}
 
 	public PartsToImages mapPartsToImages(MyParts allMyParts) throws IOException {
-
 		System.out.println("Number of part/colour combinations: " + allMyParts.size());
+		allMyParts.sort();
+		return mapSortedPartsToImages(allMyParts);
+	}
+
+	/**
+	 * Same as {@link #mapPartsToImages(MyParts)} for parts that are already sorted into {@link PartOrder},
+	 * such as the parts from an {@link ExternalPartsSorter}. The parts are iterated over twice and are
+	 * not kept, except for one entry for each unique part.
+	 */
+	PartsToImages mapSortedPartsToImages(Iterable<PartColourQuantity> allMyParts) throws IOException {
 		fetchPartsImages(allMyParts);
 		System.out.println("Missing images for colours: " + missingColours);
+		nearestColours = NearestColours.build(partsDb.getColours(), availableColours());
 		
 		List<PartAndQuantitiesByColour> uniqueParts = new ArrayList<>();
 		PartAndQuantitiesByColour currentPart = null;
-        allMyParts.sort();
 		for (PartColourQuantity colouredPart: allMyParts) {
 		    if (currentPart == null) {
                 currentPart = new PartAndQuantitiesByColour(colouredPart.part());
@@ -175,7 +187,7 @@ public class PartsToImageMapper {
 		    } else if (!currentPart.part().id().equals(colouredPart.part().id())) {
 		        // different IDs
 		        // Don't care about different prints of the same part
-		        if (colouredPart.part().id().contains("pr") && currentPart.part().idIgnoringPrint().equals(colouredPart.part().idIgnoringPrint())) {
+		        if (colouredPart.part().id().contains("pr") && imagePartId(currentPart.part()).equals(imagePartId(colouredPart.part()))) {
 		        } else {
 		            currentPart = new PartAndQuantitiesByColour(colouredPart.part());
     				uniqueParts.add(currentPart);
@@ -184,7 +196,6 @@ public class PartsToImageMapper {
 			currentPart.addColourAndQuantity(colouredPart.colour(), colouredPart.quantity());
 		}
 		
-		Map<String, ZipFile> partsFilesByColour = new HashMap<>();
 		List<PartAndQuantitiesByColour> missingImageParts = new ArrayList<>();
 		Map<PartAndQuantitiesByColour, ImageInfo> partToImage = new LinkedHashMap<>();
 		int numPartsWithLocalImage = 0;
@@ -224,16 +235,28 @@ public class PartsToImageMapper {
 
 		    Colour colour = partAndQuantity.colour();
 		    ImageInfo imageInfo = null;
-		    if ((colour.id().equals(COLOUR_BLACK) && !PREFER_BLACK_CATEGORIES.contains(partAndQuantity.part().partCategoryId())) ||
-		            missingColours.contains(colour)) {
-		        // For black parts or parts in missing colours, try to get an image that will be
-		        // easier to see than the black version at small dimensions
-		        imageInfo = getPreferredImage(partAndQuantity, COLOUR_ORDER, partsFilesByColour);
+		    if (colour.id().equals(COLOUR_BLACK) && !PREFER_BLACK_CATEGORIES.contains(partAndQuantity.part().partCategoryId())) {
+		        // For black parts, try to get an image that will be easier to see than the black
+		        // version at small dimensions
+		        imageInfo = getPreferredImage(partAndQuantity, COLOUR_ORDER);
+		    } else if (missingColours.contains(colour)) {
+		        // Try the closest colour that has images first, which usually has the part
+		        List<String> colourIds = new ArrayList<>(1+COLOUR_ORDER.size());
+		        Colour nearest = nearestColours.nearest(colour);
+		        if (nearest != null) {
+		            colourIds.add(nearest.id());
+		        }
+		        for (String colourId : COLOUR_ORDER) {
+		            if (!colourIds.contains(colourId)) {
+		                colourIds.add(colourId);
+		            }
+		        }
+		        imageInfo = getPreferredImage(partAndQuantity, colourIds);
 		    } else {
 		        List<String> colourIds = new ArrayList<>(1+COLOUR_ORDER.size());
 		        colourIds.add(colour.id());
 		        colourIds.addAll(COLOUR_ORDER);
-		        imageInfo = getPreferredImage(partAndQuantity, colourIds, partsFilesByColour);
+		        imageInfo = getPreferredImage(partAndQuantity, colourIds);
 		    }
 		    		    
 		    if (imageInfo == null) {
@@ -257,22 +280,51 @@ public class PartsToImageMapper {
         System.out.println("Number of important parts missing local images: " + missingImageParts.size());
         System.out.println("Number of parts with local images: " + numPartsWithLocalImage);
         System.out.println("Number of parts being saved as grid: " + partToImage.size());
+        System.out.println("LDraw bundles: " + ldrawBundles);
         
 //        Map<PartAndQuantitiesByColour, ImageInfo> partsAndImages = extractImages(partToImage);
 
 		return new PartsToImages(partToImage, uniqueParts, missingImageParts);
 	}
 	
-	private ImageInfo getPreferredImage(PartAndQuantitiesByColour partAndQuantities, List<String> colourIds, Map<String, ZipFile> partsFilesByColour) throws IOException {
-	    List<String> idsToTry = new ArrayList<>();
-	    final Part part = partAndQuantities.part();
-	    idsToTry.add(part.id());
-        if (PART_NUM_TO_IMAGE_NUM.containsKey(part.id())) {
-            idsToTry.add(PART_NUM_TO_IMAGE_NUM.get(part.id()));
+    /**
+     * Close the LDraw bundles that are still open
+     */
+    @Override
+    public void close() {
+        ldrawBundles.close();
+    }
+
+    /**
+     * Get the part whose image is used for a part, using the part relationships if they were read
+     * and otherwise guessing from the part ID. Parts the relationships don't know are their own image.
+     */
+    private String imagePartId(Part part) {
+        String imageId = relationships.imagePartId(part.id());
+        if (imageId != null) {
+            return imageId;
         }
-	    if (!part.id().equals(part.idIgnoringPrint()) && !DONT_SIMPLIFY_IMAGE_CATEGORIES.contains(part.partCategoryId())) {
-	        idsToTry.add(part.idIgnoringPrint());
-	    }
+        if (relationships.isLoaded()) {
+            return part.id();
+        }
+        String baseId = part.idIgnoringPrint();
+        String aliasId = relationships.imagePartId(baseId);
+        return aliasId != null ? aliasId : baseId;
+    }
+
+    /**
+     * IDs that may have an image for a part, best first: the part itself, then its image part
+     */
+    private List<String> imageIdsToTry(Part part) {
+        if (DONT_SIMPLIFY_IMAGE_CATEGORIES.contains(part.partCategoryId())) {
+            return List.of(part.id());
+        }
+        String imageId = imagePartId(part);
+        return imageId.equals(part.id()) ? List.of(part.id()) : List.of(part.id(), imageId);
+    }
+
+	private ImageInfo getPreferredImage(PartAndQuantitiesByColour partAndQuantities, List<String> colourIds) throws IOException {
+	    List<String> idsToTry = imageIdsToTry(partAndQuantities.part());
 
         List<File> possiblePartsFiles = new ArrayList<>();
         for (File partImage: possiblePartsFiles) {
@@ -292,13 +344,7 @@ public class PartsToImageMapper {
 	    
 	    for (String colourId: colourIds) {
 	        Colour colour = partsDb.getColourById(colourId);
-            ZipFile partsFile = partsFilesByColour.computeIfAbsent(colour.id(), key -> {
-                try {
-                    return new ZipFile(localLdrawFileForColour(colour), ZipFile.OPEN_READ);
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-            });
+            ZipFile partsFile = ldrawBundles.get(localLdrawFileForColour(colour));
             for (String partId: idsToTry) {
                 ZipEntry zipEntry = partsFile.getEntry(partId + ".png");
                 if (zipEntry != null) {
@@ -389,6 +435,19 @@ public class PartsToImageMapper {
 		}
 	}
 
+    /**
+     * Colours with an image bundle on disk
+     */
+    private List<Colour> availableColours() {
+        List<Colour> available = new ArrayList<>();
+        for (Colour colour : partsDb.getColours()) {
+            if (!missingColours.contains(colour) && localLdrawFileForColour(colour).exists()) {
+                available.add(colour);
+            }
+        }
+        return available;
+    }
+
     private Future<File> fetchPartsImagesIfRequired(Colour colour) {
         final File localFile = localLdrawFileForColour(colour);
         if (localFile.exists()) {
@@ -25,6 +25,7 @@ import java.util.Map;
 import java.util.Set;
 
 import mrpolyonymous.labelgenerator.MyParts.PartDetails;
+import mrpolyonymous.rebrickableapi.CatalogueDataSource;
 
 
 public class PartsToImageMapperApi {
@@ -66,6 +67,25 @@ public class PartsToImageMapperApi {
 
     }
 
+    /**
+     * Same as {@link #mapPartsToImages(MyParts, LocalPartsDatabase)}, first adding parts that are missing
+     * from the local parts database and fetching their images. Only the image URLs come from the API,
+     * everything else about a part comes from the local catalogue.
+     */
+    public PartsToImages mapPartsToImages(MyParts allMyParts, LocalPartsDatabase localPartsDatabase,
+            CatalogueDataSource dataSource, Fetcher fetcher) throws IOException, InterruptedException {
+        List<Part> parts = new ArrayList<>();
+        for (List<PartDetails> partDetails : allMyParts.getPartsMap().values()) {
+            Part part = partDetails.get(0).part();
+            if (!IGNORE_CATEGORIES.contains(part.partCategoryId())) {
+                parts.add(part);
+            }
+        }
+        localPartsDatabase.addMissingParts(parts, dataSource);
+        localPartsDatabase.fetchImages(fetcher);
+        return mapPartsToImages(allMyParts, localPartsDatabase);
+    }
+
     public PartsToImages mapPartsToImages(MyParts allMyParts, LocalPartsDatabase localPartsDatabase) throws IOException {
 
         System.out.println("Number of part/colour combinations: " + allMyParts.size());
@@ -0,0 +1,153 @@
+/*
+Copyright 2024 mrpolyonymous
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package mrpolyonymous.labelgenerator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the parts in a list of sets by joining the Rebrickable inventories, inventory_sets and
+ * inventory_parts data files.
+ * <p>
+ * The small tables are read first to find the inventory of each set, including sets inside sets,
+ * and how many of each inventory are wanted. inventory_parts.csv, which has millions of rows, is then
+ * streamed once against a hash table of those inventory IDs. Rows for other inventories are skipped
+ * after reading only their inventory ID, so no objects are made for them.
+ */
+class SetInventories {
+
+    /** A row of inventory_parts.csv that belongs to one of the sets, with the quantity for all copies */
+    record InventoryPart(String partId, String colourId, int quantity) {}
+
+    /** A set inside another set's inventory */
+    private record SubSet(String setNum, int quantity) {}
+
+    /** Set numbers wanted, with how many of each */
+    private final Map<String, Integer> setQuantities = new HashMap<>();
+    /** Map wanted inventory ID to the number of copies of it */
+    private final LongIntHashMap inventoryQuantities = new LongIntHashMap();
+    private final boolean includeSpares;
+
+    /**
+     * @param setNums Rebrickable set numbers like 75192-1. A number without a version suffix gets -1.
+     *  A set listed more than once is counted more than once.
+     * @param includeSpares whether to count the spare parts that come with a set
+     */
+    SetInventories(Collection<String> setNums, boolean includeSpares) {
+        for (String setNum : setNums) {
+            setQuantities.merge(normaliseSetNum(setNum), 1, Integer::sum);
+        }
+        this.includeSpares = includeSpares;
+    }
+
+    static String normaliseSetNum(String setNum) {
+        setNum = setNum.strip();
+        return setNum.indexOf('-') < 0 ? setNum + "-1" : setNum;
+    }
+
+    /**
+     * Read inventories.csv and inventory_sets.csv to find the inventories of the sets. The readers
+     * are not closed.
+     * @return set numbers that have no inventory
+     */
+    Set<String> readInventories(BufferedReader inventories, BufferedReader inventorySets) throws IOException {
+        // Latest version of the inventory of every set, as sets inside sets may be any set
+        Map<String, Integer> inventoryBySet = new HashMap<>();
+        Map<Integer, Integer> versionByInventory = new HashMap<>();
+        CsvTokenizer tokenizer = new CsvTokenizer(3);
+        String line = inventories.readLine();
+        // Skip header line id,version,set_num
+        while ((line = inventories.readLine()) != null) {
+            if (line.isBlank()) {
+                continue;
+            }
+            tokenizer.reset(line);
+            int inventoryId = tokenizer.getInt(0);
+            int version = tokenizer.getInt(1);
+            versionByInventory.put(inventoryId, version);
+            inventoryBySet.merge(tokenizer.getString(2), inventoryId,
+                    (current, id) -> versionByInventory.get(current) >= versionByInventory.get(id) ? current : id);
+        }
+
+        Map<Integer, List<SubSet>> subSetsByInventory = new HashMap<>();
+        line = inventorySets.readLine();
+        // Skip header line inventory_id,set_num,quantity
+        while ((line = inventorySets.readLine()) != null) {
+            if (line.isBlank()) {
+                continue;
+            }
+            tokenizer.reset(line);
+            subSetsByInventory.computeIfAbsent(tokenizer.getInt(0), k -> new ArrayList<>())
+                    .add(new SubSet(tokenizer.getString(1), tokenizer.getInt(2)));
+        }
+
+        Set<String> missingSets = new LinkedHashSet<>();
+        for (Map.Entry<String, Integer> entry : setQuantities.entrySet()) {
+            addSet(entry.getKey(), entry.getValue(), inventoryBySet, subSetsByInventory, missingSets, 0);
+        }
+        return missingSets;
+    }
+
+    private void addSet(String setNum, int quantity, Map<String, Integer> inventoryBySet,
+            Map<Integer, List<SubSet>> subSetsByInventory, Set<String> missingSets, int depth) {
+        Integer inventoryId = inventoryBySet.get(setNum);
+        if (inventoryId == null) {
+            missingSets.add(setNum);
+            return;
+        }
+        inventoryQuantities.addTo(inventoryId, quantity);
+        // Depth limit in case of bad data where a set contains itself
+        if (depth < 8) {
+            for (SubSet subSet : subSetsByInventory.getOrDefault(inventoryId, List.of())) {
+                addSet(subSet.setNum(), quantity * subSet.quantity(), inventoryBySet, subSetsByInventory,
+                        missingSets, depth + 1);
+            }
+        }
+    }
+
+    /**
+     * Stream inventory_parts.csv and collect the parts of the sets' inventories. Must be called after
+     * {@link #readInventories(BufferedReader, BufferedReader)}. The reader is not closed.
+     */
+    List<InventoryPart> readInventoryParts(BufferedReader inventoryParts) throws IOException {
+        List<InventoryPart> parts = new ArrayList<>();
+        String line = inventoryParts.readLine();
+        if (line == null) {
+            return parts;
+        }
+        // Header line inventory_id,part_num,color_id,quantity,is_spare and, in newer files, img_url
+        CsvTokenizer tokenizer = new CsvTokenizer((int) line.chars().filter(c -> c == ',').count() + 1);
+        while ((line = inventoryParts.readLine()) != null) {
+            if (line.isBlank()) {
+                continue;
+            }
+            tokenizer.reset(line);
+            int copies = inventoryQuantities.get(tokenizer.getInt(0), 0);
+            if (copies == 0 || (!includeSpares && tokenizer.getBoolean(4))) {
+                continue;
+            }
+            parts.add(new InventoryPart(tokenizer.getString(1), tokenizer.getString(2), copies * tokenizer.getInt(3)));
+        }
+        return parts;
+    }
+}
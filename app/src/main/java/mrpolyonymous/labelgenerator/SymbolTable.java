@@ -0,0 +1,184 @@
+/*
+Copyright 2024 mrpolyonymous
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package mrpolyonymous.labelgenerator;
+
+import java.util.Arrays;
+
+/**
+ * Interns strings and gives each distinct string a dense int code, starting at 0 in the order
+ * the strings were first seen.
+ * <p>
+ * Used for IDs that are repeated many times in the Rebrickable data files, like colour and category
+ * IDs, so that there is only one String instance for each of them no matter how many rows refer to
+ * it. Strings can be interned straight from a {@link CsvTokenizer} field, in which case a String is
+ * only created the first time a value is seen.
+ * <p>
+ * Not thread safe.
+ */
+final class SymbolTable {
+
+    private static final int MIN_CAPACITY = 16;
+
+    /** Interned strings, indexed by code */
+    private String[] symbols;
+    /** Hash code of each interned string, indexed by code */
+    private int[] hashes;
+    /** Open addressing hash table of code + 1, where 0 is an empty slot. Size is a power of two. */
+    private int[] slots;
+    private int size;
+
+    SymbolTable() {
+        this(MIN_CAPACITY);
+    }
+
+    SymbolTable(int expectedSize) {
+        int capacity = Math.max(MIN_CAPACITY, expectedSize);
+        symbols = new String[capacity];
+        hashes = new int[capacity];
+        slots = new int[tableSizeFor(capacity)];
+    }
+
+    /** Smallest power of two that keeps the table at most half full */
+    private static int tableSizeFor(int capacity) {
+        return Integer.highestOneBit(Math.max(MIN_CAPACITY, capacity) * 2 - 1) * 2;
+    }
+
+    private static int spread(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Get the string for a code
+     */
+    String get(int code) {
+        if (code < 0 || code >= size) {
+            throw new IndexOutOfBoundsException("No symbol with code " + code);
+        }
+        return symbols[code];
+    }
+
+    /**
+     * Get the code for a string, or -1 if it has not been interned
+     */
+    int find(String s) {
+        int hash = s.hashCode();
+        int mask = slots.length - 1;
+        for (int slot = spread(hash) & mask; ; slot = (slot + 1) & mask) {
+            int entry = slots[slot];
+            if (entry == 0) {
+                return -1;
+            }
+            int code = entry - 1;
+            if (hashes[code] == hash && symbols[code].equals(s)) {
+                return code;
+            }
+        }
+    }
+
+    /**
+     * Get the code for a tokenized field, or -1 if it has not been interned
+     */
+    int find(CsvTokenizer tokenizer, int field) {
+        int hash = tokenizer.fieldHashCode(field);
+        int mask = slots.length - 1;
+        for (int slot = spread(hash) & mask; ; slot = (slot + 1) & mask) {
+            int entry = slots[slot];
+            if (entry == 0) {
+                return -1;
+            }
+            int code = entry - 1;
+            if (hashes[code] == hash && tokenizer.fieldEquals(field, symbols[code])) {
+                return code;
+            }
+        }
+    }
+
+    /**
+     * Get the code for a string, adding it if it is new
+     */
+    int intern(String s) {
+        int code = find(s);
+        if (code < 0) {
+            code = add(s, s.hashCode());
+        }
+        return code;
+    }
+
+    /**
+     * Get the code for a tokenized field, adding it if it is new. Only creates a String for the field
+     * if it is new.
+     */
+    int intern(CsvTokenizer tokenizer, int field) {
+        int code = find(tokenizer, field);
+        if (code < 0) {
+            String s = tokenizer.getString(field);
+            code = add(s, s.hashCode());
+        }
+        return code;
+    }
+
+    /**
+     * Get the single shared instance of a string, adding it if it is new
+     */
+    String canonical(String s) {
+        return symbols[intern(s)];
+    }
+
+    /**
+     * Get the single shared instance of a tokenized field, adding it if it is new
+     */
+    String canonical(CsvTokenizer tokenizer, int field) {
+        return symbols[intern(tokenizer, field)];
+    }
+
+    private int add(String s, int hash) {
+        if (size == symbols.length) {
+            symbols = Arrays.copyOf(symbols, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+        }
+        int code = size++;
+        symbols[code] = s;
+        hashes[code] = hash;
+
+        if (size * 2 > slots.length) {
+            rehash(slots.length * 2);
+        } else {
+            insertSlot(code);
+        }
+        return code;
+    }
+
+    private void rehash(int tableSize) {
+        slots = new int[tableSize];
+        for (int code = 0; code < size; code++) {
+            insertSlot(code);
+        }
+    }
+
+    private void insertSlot(int code) {
+        int mask = slots.length - 1;
+        int slot = spread(hashes[code]) & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = code + 1;
+    }
+}
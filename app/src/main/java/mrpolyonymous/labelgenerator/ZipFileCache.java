@@ -0,0 +1,114 @@
+/*
+Copyright 2024 mrpolyonymous
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package mrpolyonymous.labelgenerator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipFile;
+
+/**
+ * Open ZIP files, at most {@code capacity} of them. When another file is opened the least recently
+ * used one is closed, so that the central directories held in memory and the open file descriptors
+ * stay bounded however many files are read.
+ * <p>
+ * A ZipFile returned by {@link #get(File)} may be closed by a later call, so it should be used before
+ * getting another file. Not thread safe.
+ */
+final class ZipFileCache implements AutoCloseable {
+
+    private final int capacity;
+    /** Open files in least recently used first order */
+    private final LinkedHashMap<File, ZipFile> openFiles;
+
+    private int hits;
+    private int misses;
+    private int evictions;
+
+    ZipFileCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        }
+        this.capacity = capacity;
+        openFiles = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<File, ZipFile> eldest) {
+                if (size() <= ZipFileCache.this.capacity) {
+                    return false;
+                }
+                evictions++;
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Get an open ZIP file, opening it if it isn't open already
+     */
+    ZipFile get(File file) throws IOException {
+        ZipFile zipFile = openFiles.get(file);
+        if (zipFile != null) {
+            hits++;
+            return zipFile;
+        }
+        misses++;
+        zipFile = new ZipFile(file, ZipFile.OPEN_READ);
+        openFiles.put(file, zipFile);
+        return zipFile;
+    }
+
+    int size() {
+        return openFiles.size();
+    }
+
+    int hits() {
+        return hits;
+    }
+
+    int misses() {
+        return misses;
+    }
+
+    int evictions() {
+        return evictions;
+    }
+
+    /**
+     * Close all open files. The cache can still be used afterwards, and opens files again.
+     */
+    @Override
+    public void close() {
+        for (ZipFile zipFile : openFiles.values()) {
+            closeQuietly(zipFile);
+        }
+        openFiles.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "open=" + openFiles.size() + " hits=" + hits + " misses=" + misses + " evictions=" + evictions;
+    }
+
+    private static void closeQuietly(ZipFile zipFile) {
+        try {
+            zipFile.close();
+        } catch (IOException e) {
+            System.err.println("Could not close " + zipFile.getName() + ": " + e);
+        }
+    }
+}
@@ -43,6 +43,7 @@ import mrpolyonymous.labelgenerator.Utils;
 public class ApiClient {
 
     private static final String API_BASE_URL = "https://rebrickable.com/api/v3/lego/";
+    private static final String USERS_API_BASE_URL = "https://rebrickable.com/api/v3/users/";
 
     /** Rebrickable rate limits to one API call per second, this value is slightly longer than
      * a second just in case.  */
@@ -52,6 +53,9 @@ public class ApiClient {
      * to kepp URLs within most common URL length limits, just in case.  */
     public static final int PARTS_BATCH_SIZE = 75;
     
+    /** Biggest page size allowed by the API, to make as few calls as possible when fetching a user's parts */
+    public static final int MAX_PAGE_SIZE = 1000;
+
     /** HTTP OK code. This value must exist somewhere else but I couldn't find it. */
     private static final int HTTP_OK = 200;
 
@@ -124,8 +128,12 @@ public class ApiClient {
     }
 
     public ApiPart fetchPart(Part part) throws IOException, InterruptedException {
-        String uri = API_BASE_URL + "parts/ " + part.id() + "/";
-        String errorMessage = "Failed to fetch part " + part;
+        return fetchPart(part.id());
+    }
+
+    public ApiPart fetchPart(String partId) throws IOException, InterruptedException {
+        String uri = API_BASE_URL + "parts/" + partId + "/";
+        String errorMessage = "Failed to fetch part " + partId;
         return fetchApiObject(uri, errorMessage, ApiPart.class);
     }
     
@@ -154,8 +162,12 @@ public class ApiClient {
     }
     
     public ApiColour fetchColour(Colour colour) throws IOException, InterruptedException {
-        String uri = API_BASE_URL + "colors/" + colour.id() + "/";
-        String errorMessage = "Failed to fetch colour ID " + colour.id();
+        return fetchColour(colour.id());
+    }
+
+    public ApiColour fetchColour(String colourId) throws IOException, InterruptedException {
+        String uri = API_BASE_URL + "colors/" + colourId + "/";
+        String errorMessage = "Failed to fetch colour ID " + colourId;
         return fetchApiObject(uri, errorMessage, ApiColour.class);
     }
     
@@ -164,5 +176,20 @@ public class ApiClient {
         String errorMessage = "Failed to fetch element ID " + elementId;
         return fetchApiObject(uri, errorMessage, ApiElement.class);
     }
-    
+
+    /**
+     * Fetch one page of all of the parts in a user's collection, including parts in their sets and
+     * part lists
+     * @param userToken token for the user, see https://rebrickable.com/api/v3/docs/?key=#!/users/users_token_create
+     * @param page page number, starting at 1
+     * @param pageSize number of parts per page, at most {@link #MAX_PAGE_SIZE}
+     */
+    public UserPartsPage fetchAllPartsPage(String userToken, int page, int pageSize)
+            throws IOException, InterruptedException {
+        String uri = USERS_API_BASE_URL + userToken + "/allparts/?page=" + page + "&page_size=" + pageSize;
+        String errorMessage = "Failed to fetch page " + page + " of user parts";
+        ApiUserParts parts = fetchApiObject(uri, errorMessage, ApiUserParts.class);
+        return new UserPartsPage(page, parts);
+    }
+
 }
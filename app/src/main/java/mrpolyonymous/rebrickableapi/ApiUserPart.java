@@ -0,0 +1,77 @@
+/*
+Copyright 2024 mrpolyonymous
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package mrpolyonymous.rebrickableapi;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+
+/**
+ * One part and colour in a user's collection, with the quantity the user has in all of their sets
+ * and part lists
+ */
+@JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ApiUserPart {
+
+    // Sample JSON prettified, part abbreviated
+//    {
+//        "quantity": 12,
+//        "part": {
+//          "part_num": "3001",
+//          "name": "Brick 2 x 4",
+//          "part_cat_id": 11,
+//          ...
+//        },
+//        "color": {
+//          "id": 4,
+//          "name": "Red",
+//          "rgb": "C91A09",
+//          "is_trans": false
+//        }
+//    }
+
+    private int quantity;
+    private ApiPart part;
+    @JsonProperty("color")
+    private ApiColour colour;
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public void setQuantity(int quantity) {
+        this.quantity = quantity;
+    }
+
+    public ApiPart getPart() {
+        return part;
+    }
+
+    public void setPart(ApiPart part) {
+        this.part = part;
+    }
+
+    public ApiColour getColour() {
+        return colour;
+    }
+
+    public void setColour(ApiColour colour) {
+        this.colour = colour;
+    }
+
+}
@@ -0,0 +1,147 @@
+/*
+Copyright 2024 mrpolyonymous
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package mrpolyonymous.rebrickableapi;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import mrpolyonymous.labelgenerator.Colour;
+import mrpolyonymous.labelgenerator.Part;
+import mrpolyonymous.labelgenerator.PartsCsvDatabase;
+
+/**
+ * Parts and colours in the form returned by the Rebrickable API, answered from the local CSV
+ * catalogue where possible. The API is only called for things that the CSV files don't have, which
+ * are image URLs and parts or colours newer than the local files. Image URLs are fetched in batches
+ * of {@link ApiClient#PARTS_BATCH_SIZE} parts and remembered, so each part is only asked for once.
+ * <p>
+ * Objects made from the local catalogue only have the fields that are in the CSV files, so for
+ * example {@link ApiPart#getExternalIds()} is null.
+ */
+public class CatalogueDataSource {
+
+    private final PartsCsvDatabase partsDatabase;
+    private final ApiClient apiClient;
+
+    /** Image URLs fetched from the API by part ID, where null means the API has no image for the part */
+    private final Map<String, String> partImageUrls = new HashMap<>();
+
+    private int numLocalAnswers;
+    private int numApiCalls;
+
+    public CatalogueDataSource(PartsCsvDatabase partsDatabase, ApiClient apiClient) {
+        this.partsDatabase = partsDatabase;
+        this.apiClient = apiClient;
+    }
+
+    /**
+     * Get a part, from the local catalogue if it has the part and otherwise from the API. The part
+     * image URL is only set if it has already been fetched by {@link #getPartsWithImages(Collection)}.
+     */
+    public ApiPart getPart(String partId) throws IOException, InterruptedException {
+        Part part;
+        try {
+            part = partsDatabase.getPartById(partId);
+        } catch (NoSuchElementException e) {
+            numApiCalls++;
+            return apiClient.fetchPart(partId);
+        }
+        return toApiPart(part);
+    }
+
+    /**
+     * Get a colour, from the local catalogue if it has the colour and otherwise from the API
+     */
+    public ApiColour getColour(String colourId) throws IOException, InterruptedException {
+        Colour colour;
+        try {
+            colour = partsDatabase.getColourById(colourId);
+        } catch (NoSuchElementException e) {
+            numApiCalls++;
+            return apiClient.fetchColour(colourId);
+        }
+        numLocalAnswers++;
+        ApiColour apiColour = new ApiColour();
+        apiColour.setId(Integer.parseInt(colour.id()));
+        apiColour.setName(colour.description());
+        apiColour.setRgb(colour.rgb());
+        apiColour.setTrans(colour.transparent());
+        return apiColour;
+    }
+
+    /**
+     * Get parts from the local catalogue with their image URLs. Image URLs not fetched before are
+     * fetched from the API in batches.
+     */
+    public List<ApiPart> getPartsWithImages(Collection<Part> parts) throws IOException, InterruptedException {
+        fetchMissingImageUrls(parts);
+        List<ApiPart> apiParts = new ArrayList<>(parts.size());
+        for (Part part : parts) {
+            apiParts.add(toApiPart(part));
+        }
+        return apiParts;
+    }
+
+    private void fetchMissingImageUrls(Collection<Part> parts) throws IOException, InterruptedException {
+        List<Part> partsToFetch = new ArrayList<>();
+        for (Part part : parts) {
+            if (!partImageUrls.containsKey(part.id())) {
+                partsToFetch.add(part);
+            }
+        }
+        if (partsToFetch.isEmpty()) {
+            return;
+        }
+
+        numApiCalls += (partsToFetch.size() + ApiClient.PARTS_BATCH_SIZE - 1) / ApiClient.PARTS_BATCH_SIZE;
+        for (ApiPart apiPart : apiClient.fetchParts(partsToFetch)) {
+            partImageUrls.put(apiPart.getPartNum(), apiPart.getPartImgUrl());
+        }
+        // Don't ask again for parts that the API didn't return
+        for (Part part : partsToFetch) {
+            partImageUrls.putIfAbsent(part.id(), null);
+        }
+    }
+
+    private ApiPart toApiPart(Part part) {
+        numLocalAnswers++;
+        ApiPart apiPart = new ApiPart();
+        apiPart.setPartNum(part.id());
+        apiPart.setName(part.description());
+        apiPart.setPartCatId(Long.parseLong(part.partCategoryId()));
+        apiPart.setPartImgUrl(partImageUrls.get(part.id()));
+        return apiPart;
+    }
+
+    /**
+     * Number of parts and colours answered from the local catalogue
+     */
+    public int getNumLocalAnswers() {
+        return numLocalAnswers;
+    }
+
+    /**
+     * Number of calls made to the API
+     */
+    public int getNumApiCalls() {
+        return numApiCalls;
+    }
+}
@@ -0,0 +1,27 @@
+/*
+Copyright 2024 mrpolyonymous
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package mrpolyonymous.rebrickableapi;
+
+/**
+ * A page of a user's parts as fetched by {@link ApiClient#fetchAllPartsPage(String, int, int)}
+ * @param page page number, starting at 1
+ */
+public record UserPartsPage(int page, ApiUserParts parts) {
+
+    public boolean isLastPage() {
+        return parts.getNext() == null;
+    }
+}
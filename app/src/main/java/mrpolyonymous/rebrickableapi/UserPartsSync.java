@@ -0,0 +1,299 @@
+/*
+Copyright 2024 mrpolyonymous
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package mrpolyonymous.rebrickableapi;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Properties;
+import java.util.function.Consumer;
+
+/**
+ * Keeps a local copy of a user's parts from the Rebrickable API endpoint
+ * https://rebrickable.com/api/v3/users/{user_token}/allparts/, as an alternative to exporting
+ * "All My Parts" as a CSV file by hand.
+ * <p>
+ * Each page is saved as a CSV file in the same Part,Color,Quantity format as the export, so the
+ * page files can be read like any other parts list. A state file in the sync folder keeps a cursor,
+ * which is the next page to fetch, and a checksum of each page's rows. Only the rows are hashed, so
+ * a page isn't changed by the total count in the response changing. Because of the API rate limit a
+ * sync of a big collection takes a while:
+ * <ul>
+ * <li>a complete sync newer than {@code minTimeBetweenSyncs} is used as it is, without any API calls
+ * <li>a sync that was interrupted carries on from its cursor rather than starting again, if it was
+ * started within {@code minTimeBetweenSyncs}
+ * <li>otherwise the first page is fetched, and if it has the same checksum and the same total count
+ * of parts as the last complete sync, the saved pages are used and nothing else is fetched
+ * <li>a page with the same checksum as last time isn't written again
+ * </ul>
+ * The API doesn't support conditional requests, so the first page and the count are the cheapest way
+ * to tell whether anything changed. They miss a change to a later page that keeps the count the same,
+ * such as a different quantity, so every page is fetched again once the last full sync is older than
+ * {@code maxTimeBetweenFullSyncs}.
+ */
+public class UserPartsSync {
+
+    /** Fetches one page of parts, see {@link ApiClient#fetchAllPartsPage(String, int, int)} */
+    @FunctionalInterface
+    public interface PageSource {
+        UserPartsPage fetchPage(int page, int pageSize) throws IOException, InterruptedException;
+    }
+
+    /** Default longest time to trust the first page check before fetching every page again */
+    public static final Duration DEFAULT_MAX_TIME_BETWEEN_FULL_SYNCS = Duration.ofDays(7);
+
+    private static final String STATE_FILE_NAME = "sync.properties";
+    private static final String PAGE_SIZE = "pageSize";
+    private static final String CURSOR = "cursor";
+    private static final String NUM_PAGES = "numPages";
+    private static final String STARTED_AT = "startedAt";
+    private static final String SYNCED_AT = "syncedAt";
+    private static final String FULL_SYNCED_AT = "fullSyncedAt";
+    private static final String COUNT = "count";
+    private static final String CHECKSUM_PREFIX = "checksum.";
+
+    private final File syncFolder;
+    private final PageSource pageSource;
+    private final int pageSize;
+    private final Duration minTimeBetweenSyncs;
+    private final Duration maxTimeBetweenFullSyncs;
+
+    private int numPagesFetched;
+    private int numPagesChanged;
+
+    /**
+     * @param syncFolder folder for the page files and the sync state, which is created if needed
+     */
+    public UserPartsSync(File syncFolder, PageSource pageSource, int pageSize, Duration minTimeBetweenSyncs,
+            Duration maxTimeBetweenFullSyncs) {
+        this.syncFolder = syncFolder;
+        this.pageSource = pageSource;
+        this.pageSize = pageSize;
+        this.minTimeBetweenSyncs = minTimeBetweenSyncs;
+        this.maxTimeBetweenFullSyncs = maxTimeBetweenFullSyncs;
+    }
+
+    public UserPartsSync(File syncFolder, PageSource pageSource, int pageSize, Duration minTimeBetweenSyncs) {
+        this(syncFolder, pageSource, pageSize, minTimeBetweenSyncs, DEFAULT_MAX_TIME_BETWEEN_FULL_SYNCS);
+    }
+
+    public UserPartsSync(File syncFolder, ApiClient apiClient, String userToken, Duration minTimeBetweenSyncs) {
+        this(syncFolder, (page, size) -> apiClient.fetchAllPartsPage(userToken, page, size), ApiClient.MAX_PAGE_SIZE,
+                minTimeBetweenSyncs);
+    }
+
+    /**
+     * Bring the local copy of the user's parts up to date
+     * @param pageListener called with each page file, in page order, as soon as the page is up to date
+     * @return the page files, in page order
+     */
+    public List<File> sync(Consumer<File> pageListener) throws IOException, InterruptedException {
+        if (!syncFolder.isDirectory() && !syncFolder.mkdirs()) {
+            throw new IOException("Could not create directory " + syncFolder);
+        }
+        Properties state = readState();
+        long now = System.currentTimeMillis();
+        boolean samePageSize = getInt(state, PAGE_SIZE) == pageSize;
+        int cursor = getInt(state, CURSOR);
+        List<File> pageFiles = new ArrayList<>();
+
+        if (samePageSize && cursor == 0 && now - getLong(state, SYNCED_AT) < minTimeBetweenSyncs.toMillis()
+                && allPagesSaved(getInt(state, NUM_PAGES))) {
+            for (int page = 1; page <= getInt(state, NUM_PAGES); page++) {
+                addPage(pageFiles, page, pageListener);
+            }
+            System.out.println("Using " + pageFiles.size() + " pages of user parts synced at "
+                    + Instant.ofEpochMilli(getLong(state, SYNCED_AT)));
+            return pageFiles;
+        }
+
+        UserPartsPage firstPage = null;
+        int numSavedPages = getInt(state, NUM_PAGES);
+        if (samePageSize && cursor == 0 && now - getLong(state, FULL_SYNCED_AT) < maxTimeBetweenFullSyncs.toMillis()
+                && allPagesSaved(numSavedPages)) {
+            firstPage = pageSource.fetchPage(1, pageSize);
+            numPagesFetched++;
+            if (firstPage.parts().getCount() == getInt(state, COUNT)
+                    && sha256Hex(toCsv(firstPage.parts())).equals(state.getProperty(CHECKSUM_PREFIX + 1))
+                    && firstPage.isLastPage() == (numSavedPages == 1)) {
+                for (int page = 1; page <= numSavedPages; page++) {
+                    addPage(pageFiles, page, pageListener);
+                }
+                state.setProperty(SYNCED_AT, Long.toString(System.currentTimeMillis()));
+                writeState(state);
+                System.out.println("First page of user parts unchanged, using " + numSavedPages + " saved pages");
+                return pageFiles;
+            }
+        }
+
+        int startPage = 1;
+        if (samePageSize && cursor > 1 && now - getLong(state, STARTED_AT) < minTimeBetweenSyncs.toMillis()
+                && allPagesSaved(cursor - 1)) {
+            startPage = cursor;
+            System.out.println("Resuming sync of user parts at page " + startPage);
+            for (int page = 1; page < startPage; page++) {
+                addPage(pageFiles, page, pageListener);
+            }
+        } else {
+            if (!samePageSize) {
+                // Pages of a different size can't be compared
+                state.clear();
+            }
+            state.setProperty(PAGE_SIZE, Integer.toString(pageSize));
+            state.setProperty(STARTED_AT, Long.toString(now));
+        }
+
+        int page = startPage;
+        UserPartsPage fetched;
+        while (true) {
+            if (page == 1 && firstPage != null) {
+                // Already fetched to check for changes
+                fetched = firstPage;
+            } else {
+                fetched = pageSource.fetchPage(page, pageSize);
+                numPagesFetched++;
+            }
+            File pageFile = pageFile(page);
+            String pageCsv = toCsv(fetched.parts());
+            String checksum = sha256Hex(pageCsv);
+            if (!checksum.equals(state.getProperty(CHECKSUM_PREFIX + page)) || !pageFile.isFile()) {
+                Files.writeString(pageFile.toPath(), pageCsv, StandardCharsets.UTF_8);
+                state.setProperty(CHECKSUM_PREFIX + page, checksum);
+                numPagesChanged++;
+            }
+            if (fetched.isLastPage()) {
+                break;
+            }
+            // Save progress so that an interrupted sync can carry on from the next page
+            state.setProperty(CURSOR, Integer.toString(page + 1));
+            writeState(state);
+            addPage(pageFiles, page, pageListener);
+            page++;
+        }
+
+        int numPages = page;
+        for (int oldPage = numPages + 1; state.containsKey(CHECKSUM_PREFIX + oldPage); oldPage++) {
+            state.remove(CHECKSUM_PREFIX + oldPage);
+            Files.deleteIfExists(pageFile(oldPage).toPath());
+        }
+        state.setProperty(CURSOR, "0");
+        state.setProperty(NUM_PAGES, Integer.toString(numPages));
+        state.setProperty(COUNT, Integer.toString(fetched.parts().getCount()));
+        state.setProperty(SYNCED_AT, Long.toString(System.currentTimeMillis()));
+        state.setProperty(FULL_SYNCED_AT, state.getProperty(STARTED_AT));
+        writeState(state);
+        addPage(pageFiles, numPages, pageListener);
+        System.out.println("Synced " + numPages + " pages of user parts, fetched " + numPagesFetched + ", "
+                + numPagesChanged + " changed");
+        return pageFiles;
+    }
+
+    /**
+     * Number of pages fetched from the API by this object
+     */
+    public int getNumPagesFetched() {
+        return numPagesFetched;
+    }
+
+    /**
+     * Number of fetched pages that were different from the saved copy
+     */
+    public int getNumPagesChanged() {
+        return numPagesChanged;
+    }
+
+    private void addPage(List<File> pageFiles, int page, Consumer<File> pageListener) {
+        File pageFile = pageFile(page);
+        pageFiles.add(pageFile);
+        pageListener.accept(pageFile);
+    }
+
+    private boolean allPagesSaved(int numPages) {
+        for (int page = 1; page <= numPages; page++) {
+            if (!pageFile(page).isFile()) {
+                return false;
+            }
+        }
+        return numPages > 0;
+    }
+
+    private File pageFile(int page) {
+        return new File(syncFolder, "allparts-" + page + ".csv");
+    }
+
+    /**
+     * The rows of a page in the format of a parts list CSV file
+     */
+    private static String toCsv(ApiUserParts parts) {
+        StringBuilder csv = new StringBuilder("Part,Color,Quantity\n");
+        for (ApiUserPart userPart : parts.getResults()) {
+            csv.append(userPart.getPart().getPartNum()).append(',').append(userPart.getColour().getId()).append(',')
+                    .append(userPart.getQuantity()).append('\n');
+        }
+        return csv.toString();
+    }
+
+    private static String sha256Hex(String s) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(s.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private Properties readState() throws IOException {
+        Properties state = new Properties();
+        File stateFile = new File(syncFolder, STATE_FILE_NAME);
+        if (stateFile.isFile()) {
+            try (BufferedReader in = Files.newBufferedReader(stateFile.toPath(), StandardCharsets.UTF_8)) {
+                state.load(in);
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Write the state to a temporary file and move it into place, so an interrupted write doesn't
+     * lose the state
+     */
+    private void writeState(Properties state) throws IOException {
+        File tempFile = new File(syncFolder, STATE_FILE_NAME + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(tempFile.toPath(), StandardCharsets.UTF_8)) {
+            state.store(out, "Sync state of Rebrickable user parts");
+        }
+        Files.move(tempFile.toPath(), new File(syncFolder, STATE_FILE_NAME).toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static int getInt(Properties state, String key) {
+        return Integer.parseInt(state.getProperty(key, "0"));
+    }
+
+    private static long getLong(Properties state, String key) {
+        return Long.parseLong(state.getProperty(key, "0"));
+    }
+}
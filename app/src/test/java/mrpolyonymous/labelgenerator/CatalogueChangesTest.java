@@ -0,0 +1,121 @@
+package mrpolyonymous.labelgenerator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CatalogueChangesTest {
+
+    private static BufferedReader csv(String data) {
+        return new BufferedReader(new StringReader(data));
+    }
+
+    @Test void testDiffAndApply() throws IOException {
+        PartsCsvDatabase partsDatabase = new PartsCsvDatabase();
+        partsDatabase.readFullPartsList(csv("""
+                part_num,name,part_cat_id,part_material
+                3001,Brick 2 x 4,11,Plastic
+                3002,Brick 2 x 3,11,Plastic
+                3003,Brick 2 x 2,11,Plastic
+                """));
+        partsDatabase.readElements(csv("""
+                element_id,part_num,color_id,design_id
+                300121,3001,4,3001
+                300221,3002,4,3002
+                """));
+
+        CatalogueChanges changes = new CatalogueChanges(partsDatabase);
+        changes.diffParts(csv("""
+                part_num,name,part_cat_id,part_material
+                3001,Brick 2 x 4,11,Plastic
+                3003,Brick 2 x 2 Renamed,11,Plastic
+                3004,Brick 1 x 2,11,Plastic
+                """));
+        changes.diffElements(csv("""
+                element_id,part_num,color_id,design_id
+                300121,3001,4,3001
+                300421,3004,4,3004
+                """));
+        assertEquals(List.of("3004"), changes.parts.added().stream().map(Part::id).toList());
+        assertEquals(List.of("3003"), changes.parts.modified().stream().map(Part::id).toList());
+        assertEquals(List.of("3002"), changes.parts.removed().stream().map(Part::id).toList());
+        assertEquals(5, changes.size());
+        // Nothing changes until the changes are applied
+        assertEquals("Brick 2 x 2", partsDatabase.getPartById("3003").description());
+
+        changes.apply();
+        assertEquals("Brick 2 x 2 Renamed", partsDatabase.getPartById("3003").description());
+        assertEquals("Brick 1 x 2", partsDatabase.getPartById("3004").description());
+        assertThrows(NoSuchElementException.class, () -> partsDatabase.getPartById("3002"));
+        assertThrows(NoSuchElementException.class, () -> partsDatabase.getElementById("300221"));
+        assertNull(partsDatabase.tryGetElementByPartColourId("3002", "4"));
+        assertThrows(NoSuchElementException.class, () -> partsDatabase.getElementCountByPartId("3002"));
+        assertEquals("300421", partsDatabase.getElementByPartColourId("3004", "4").id());
+        assertEquals(List.of("300121", "300421"), partsDatabase.getElements().stream().map(Element::id).toList());
+    }
+
+    @Test void testRemoveAndAddBackLastElement() throws IOException {
+        PartsCsvDatabase partsDatabase = new PartsCsvDatabase();
+        partsDatabase.readFullPartsList(csv("""
+                part_num,name,part_cat_id,part_material
+                3001,Brick 2 x 4,11,Plastic
+                3002,Brick 2 x 3,11,Plastic
+                """));
+        String allElements = """
+                element_id,part_num,color_id,design_id
+                300121,3001,4,3001
+                300221,3002,4,3002
+                """;
+        partsDatabase.readElements(csv(allElements));
+
+        CatalogueChanges removal = new CatalogueChanges(partsDatabase);
+        removal.diffElements(csv("""
+                element_id,part_num,color_id,design_id
+                300121,3001,4,3001
+                """));
+        removal.apply();
+        assertNull(partsDatabase.tryGetElementById("300221"));
+
+        CatalogueChanges addBack = new CatalogueChanges(partsDatabase);
+        addBack.diffElements(csv(allElements));
+        assertEquals(1, addBack.elements.added().size());
+        addBack.apply();
+        assertEquals("300221", partsDatabase.getElementById("300221").id());
+        assertEquals("300221", partsDatabase.getElementByPartColourId("3002", "4").id());
+        assertEquals(1, partsDatabase.getElementCountByPartId("3002"));
+
+        CatalogueChanges modify = new CatalogueChanges(partsDatabase);
+        modify.diffElements(csv("""
+                element_id,part_num,color_id,design_id
+                300121,3001,4,3001
+                300221,3001,1,3001
+                """));
+        modify.apply();
+        assertNull(partsDatabase.tryGetElementByPartColourId("3002", "4"));
+        assertThrows(NoSuchElementException.class, () -> partsDatabase.getElementCountByPartId("3002"));
+        assertEquals(2, partsDatabase.getElementCountByPartId("3001"));
+    }
+
+    @Test void testUnchangedRowsAreNotModified() throws IOException {
+        String colours = """
+                id,name,rgb,is_trans
+                4,"Red, Dark",C91A09,True
+                47,Trans-Clear \u00e9,FCFCFC,t
+                """;
+        PartsCsvDatabase partsDatabase = new PartsCsvDatabase();
+        partsDatabase.readColours(csv(colours));
+
+        CatalogueChanges changes = new CatalogueChanges(partsDatabase);
+        changes.diffColours(csv(colours.replace("True", "true")));
+        assertEquals(0, changes.size());
+
+        changes = new CatalogueChanges(partsDatabase);
+        changes.diffColours(csv(colours.replace("t\n", "f\n")));
+        assertEquals(List.of("47"), changes.colours.modified().stream().map(Colour::id).toList());
+    }
+}
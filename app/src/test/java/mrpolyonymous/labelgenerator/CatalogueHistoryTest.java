@@ -0,0 +1,82 @@
+package mrpolyonymous.labelgenerator;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CatalogueHistoryTest {
+
+    @TempDir
+    File tempDir;
+
+    private static PartsCsvDatabase database(String partsCsv) throws IOException {
+        PartsCsvDatabase partsDatabase = new PartsCsvDatabase();
+        partsDatabase.readColours(new BufferedReader(new StringReader("id,name,rgb,is_trans\n4,Red,C91A09,f\n")));
+        partsDatabase.readFullPartsList(new BufferedReader(new StringReader(partsCsv)));
+        partsDatabase.readElements(new BufferedReader(new StringReader(
+                "element_id,part_num,color_id,design_id\n300121,3001,4,3001\n")));
+        return partsDatabase;
+    }
+
+    @Test void testSaveAndLoadByDate() throws IOException {
+        CatalogueHistory history = new CatalogueHistory(tempDir);
+        LocalDate day1 = LocalDate.of(2024, 3, 1);
+        LocalDate day2 = LocalDate.of(2024, 3, 8);
+        history.save(database("part_num,name,part_cat_id,part_material\n3001,Brick 2 x 4,11,Plastic\n"), day1);
+        history.save(database("part_num,name,part_cat_id,part_material\n3001,Brick 2 x 4,11,Plastic\n"
+                + "3002,Brick 2 x 3,11,Plastic\n"), day2);
+
+        assertEquals(List.of(day1, day2), history.dates());
+        // Only the parts table changed, so only one more table file
+        assertEquals(5, new File(tempDir, "tables").list().length);
+
+        assertNull(history.load(day1.minusDays(1)));
+        PartsCsvDatabase old = history.load(day2.minusDays(1));
+        assertNull(old.tryGetPartById("3002"));
+        assertEquals("Red", old.getColourById("4").description());
+        assertEquals("300121", old.getElementByPartColourId("3001", "4").id());
+        assertEquals("Brick 2 x 3", history.load(day2.plusDays(30)).getPartById("3002").description());
+    }
+
+    @Test void testSameTablesStoredOnce() throws IOException {
+        CatalogueHistory history = new CatalogueHistory(tempDir);
+        String parts = "part_num,name,part_cat_id,part_material\n3001,Brick 2 x 4,11,Plastic\n";
+        // The same elements in a different order, with the same element found by part and colour
+        PartsCsvDatabase partsDatabase = database(parts);
+        partsDatabase.readElements(new BufferedReader(new StringReader(
+                "element_id,part_num,color_id,design_id\n300221,3002,4,3002\n300321,3001,4,3001\n")));
+        history.save(partsDatabase, LocalDate.of(2024, 3, 1));
+        PartsCsvDatabase reordered = new PartsCsvDatabase();
+        reordered.readColours(new BufferedReader(new StringReader("id,name,rgb,is_trans\n4,Red,C91A09,f\n")));
+        reordered.readFullPartsList(new BufferedReader(new StringReader(parts)));
+        reordered.readElements(new BufferedReader(new StringReader("element_id,part_num,color_id,design_id\n"
+                + "300121,3001,4,3001\n300321,3001,4,3001\n300221,3002,4,3002\n")));
+        history.save(reordered, LocalDate.of(2024, 3, 8));
+
+        assertEquals(4, new File(tempDir, "tables").list().length);
+        assertEquals("300321", history.load(LocalDate.of(2024, 3, 8)).getElementByPartColourId("3001", "4").id());
+    }
+
+    @Test void testOtherVersionNotLoaded() throws IOException {
+        CatalogueHistory history = new CatalogueHistory(tempDir);
+        LocalDate day = LocalDate.of(2024, 3, 1);
+        history.save(database("part_num,name,part_cat_id,part_material\n3001,Brick 2 x 4,11,Plastic\n"), day);
+        assertEquals("Brick 2 x 4", history.load(day).getPartById("3001").description());
+
+        Path manifest = new File(tempDir, day + ".catalogue").toPath();
+        List<String> lines = new ArrayList<>(Files.readAllLines(manifest));
+        lines.set(0, "version 99");
+        Files.write(manifest, lines);
+        assertThrows(IOException.class, () -> history.load(day));
+    }
+}
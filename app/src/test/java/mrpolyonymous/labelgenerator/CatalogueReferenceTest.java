@@ -0,0 +1,43 @@
+package mrpolyonymous.labelgenerator;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CatalogueReferenceTest {
+
+    private static PartsCsvDatabase databaseWithPart(String partId) {
+        PartsCsvDatabase partsDatabase = new PartsCsvDatabase();
+        partsDatabase.addPart(Part.from(partId, "Brick", "11"));
+        return partsDatabase.freeze();
+    }
+
+    @Test void testSwap() {
+        PartsCsvDatabase first = databaseWithPart("3001");
+        CatalogueReference catalogue = new CatalogueReference(first);
+        PartsCsvDatabase second = databaseWithPart("3002");
+        assertSame(first, catalogue.swap(second));
+        assertSame(second, catalogue.get());
+        assertThrows(IllegalArgumentException.class, () -> catalogue.swap(new PartsCsvDatabase()));
+    }
+
+    @Test void testReload() throws InterruptedException, ExecutionException {
+        CatalogueReference catalogue = new CatalogueReference(databaseWithPart("3001"));
+        PartsCsvDatabase reloaded = catalogue.reloadAsync(() -> {
+            PartsCsvDatabase partsDatabase = new PartsCsvDatabase();
+            partsDatabase.addPart(Part.from("3002", "Brick", "11"));
+            return partsDatabase;
+        }).get();
+        assertTrue(reloaded.isFrozen());
+        assertSame(reloaded, catalogue.get());
+
+        CompletableFuture<PartsCsvDatabase> failed = catalogue.reloadAsync(() -> {
+            throw new IOException("No data");
+        });
+        assertThrows(ExecutionException.class, failed::get);
+        assertSame(reloaded, catalogue.get());
+    }
+}
@@ -0,0 +1,96 @@
+package mrpolyonymous.labelgenerator;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class CsvTokenizerTest {
+
+    /** Same inputs as the splitCsv cases in UtilsTest */
+    private static final String[] LINES = {
+            "3001,Brick 2 x 4,11,Plastic",
+            "6006041,3001,1,",
+            ",,,",
+            "3001,\"Brick, Special\",11,x",
+            "1,\"Say \"\"Hi\"\"\",2,y",
+            "3626cpr0001,Minifig Head \u2013 Smile,59,Plastic",
+    };
+
+    @Test void testMatchesSplitCsv() {
+        CsvTokenizer tokenizer = new CsvTokenizer(4);
+        for (String line : LINES) {
+            String[] expected = Utils.splitCsv(line, 4);
+            tokenizer.reset(line);
+            for (int i = 0; i < expected.length; i++) {
+                assertEquals(expected[i], tokenizer.getString(i));
+                assertTrue(tokenizer.fieldEquals(i, expected[i]));
+                assertEquals(expected[i].hashCode(), tokenizer.fieldHashCode(i));
+                assertEquals(0, tokenizer.compareField(i, expected[i]));
+                assertEquals(CsvTokenizer.hash64(CsvTokenizer.HASH64_SEED, expected[i]),
+                        tokenizer.fieldHash64(CsvTokenizer.HASH64_SEED, i));
+            }
+        }
+    }
+
+    @Test void testBytesMatchSplitCsv() {
+        CsvTokenizer tokenizer = new CsvTokenizer(4);
+        for (String line : LINES) {
+            String[] expected = Utils.splitCsv(line, 4);
+            // surround the line with other data to check offsets are respected
+            byte[] lineBytes = ("junk\n" + line + "\r\nmore").getBytes(StandardCharsets.UTF_8);
+            int start = 5;
+            int end = lineBytes.length - 6;
+            tokenizer.reset(ByteBuffer.wrap(lineBytes), start, end);
+            for (int i = 0; i < expected.length; i++) {
+                assertEquals(expected[i], tokenizer.getString(i));
+                assertTrue(tokenizer.fieldEquals(i, expected[i]));
+                assertEquals(expected[i].hashCode(), tokenizer.fieldHashCode(i));
+                assertEquals(0, tokenizer.compareField(i, expected[i]));
+                assertEquals(CsvTokenizer.hash64(CsvTokenizer.HASH64_SEED, expected[i]),
+                        tokenizer.fieldHash64(CsvTokenizer.HASH64_SEED, i));
+            }
+        }
+    }
+
+    @Test void testFieldEquals() {
+        CsvTokenizer tokenizer = new CsvTokenizer(2);
+        tokenizer.reset("3001,3001a");
+        assertTrue(tokenizer.fieldEquals(0, "3001"));
+        assertFalse(tokenizer.fieldEquals(0, "3001a"));
+        assertFalse(tokenizer.fieldEquals(1, "3001"));
+    }
+
+    @Test void testCompareField() {
+        CsvTokenizer tokenizer = new CsvTokenizer(2);
+        tokenizer.reset("3001,\"3001a\"");
+        assertTrue(tokenizer.compareField(0, "3001a") < 0);
+        assertTrue(tokenizer.compareField(0, "300") > 0);
+        assertTrue(tokenizer.compareField(0, "3002") < 0);
+        assertTrue(tokenizer.compareField(1, "3001") > 0);
+        assertEquals(0, tokenizer.compareField(1, "3001a"));
+    }
+
+    @Test void testGetInt() {
+        CsvTokenizer tokenizer = new CsvTokenizer(5);
+        tokenizer.reset("0,-1,1088,2147483647,\"12\"");
+        assertEquals(0, tokenizer.getInt(0));
+        assertEquals(-1, tokenizer.getInt(1));
+        assertEquals(1088, tokenizer.getInt(2));
+        assertEquals(Integer.MAX_VALUE, tokenizer.getInt(3));
+        assertEquals(12, tokenizer.getInt(4));
+
+        tokenizer.reset("2147483648,a1,-,,1 ");
+        for (int i = 0; i < 5; i++) {
+            int field = i;
+            assertThrows(NumberFormatException.class, () -> tokenizer.getInt(field));
+        }
+    }
+
+    @Test void testWrongColumns() {
+        CsvTokenizer tokenizer = new CsvTokenizer(3);
+        assertThrows(RuntimeException.class, () -> tokenizer.reset("1,2"));
+        assertThrows(RuntimeException.class, () -> tokenizer.reset("1,2,3,4"));
+    }
+}
@@ -0,0 +1,83 @@
+package mrpolyonymous.labelgenerator;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ElementTableTest {
+
+    @Test void testLookups() {
+        ElementTable elements = new ElementTable(new SymbolTable());
+        elements.add(new Element("300121", "3001", "5", ""));
+        CsvTokenizer tokenizer = new CsvTokenizer(4);
+        tokenizer.reset("300126,3001,4,");
+        elements.add(tokenizer);
+        elements.add(new Element("4211", "3001", "4", "1"));
+
+        assertEquals(3, elements.size());
+        assertEquals(3, elements.elementCount("3001"));
+        assertEquals(0, elements.elementCount("3002"));
+        assertEquals(new Element("300126", "3001", "4", ""), elements.get(elements.findRow("300126")));
+        // Last element added for a part and colour wins
+        assertEquals("4211", elements.get(elements.findRow("3001", "4")).id());
+        assertEquals("300121", elements.get(elements.findRow("3001", "5")).id());
+        assertEquals(-1, elements.findRow("3001", "1"));
+        assertEquals(-1, elements.findRow("4211x"));
+    }
+
+    @Test void testReplaceElement() {
+        ElementTable elements = new ElementTable(new SymbolTable());
+        for (int i = 0; i < 5000; i++) {
+            elements.add(new Element(Integer.toString(i), "p" + (i % 100), Integer.toString(i % 7), ""));
+        }
+        elements.add(new Element("0", "q", "1", "2"));
+        assertEquals(5000, elements.size());
+        assertEquals(49, elements.elementCount("p0"));
+        assertEquals(1, elements.elementCount("q"));
+        assertEquals(new Element("0", "q", "1", "2"), elements.get(elements.findRow("q", "1")));
+    }
+
+    @Test void testAllRowsForPartColour() {
+        ElementTable elements = new ElementTable(new SymbolTable());
+        elements.add(new Element("1", "3001", "4", ""));
+        elements.add(new Element("2", "3002", "4", ""));
+        elements.add(new Element("3", "3001", "4", ""));
+        elements.add(new Element("4", "3001", "1", ""));
+        assertArrayEquals(new int[] { 0, 2 }, elements.findRows("3001", "4"));
+        assertEquals(2, elements.findRow("3001", "4"));
+        elements.add(new Element("5", "3001", "4", ""));
+        assertArrayEquals(new int[] { 0, 2, 4 }, elements.findRows("3001", "4"));
+        assertArrayEquals(new int[] { 3 }, elements.findRows("3001", "1"));
+        assertArrayEquals(new int[0], elements.findRows("3002", "1"));
+        assertArrayEquals(new int[0], elements.findRows("3003", "4"));
+    }
+
+    @Test void testDuplicateIdOnLastRow() {
+        ElementTable elements = new ElementTable(new SymbolTable());
+        CsvTokenizer tokenizer = new CsvTokenizer(4);
+        tokenizer.reset("300121,3001,5,");
+        elements.add(tokenizer);
+        tokenizer.reset("300121,3001,5,");
+        elements.add(tokenizer);
+        assertEquals(1, elements.size());
+        assertEquals(1, elements.elementCount("3001"));
+    }
+
+    @Test void testRemoveAndReplaceLastRow() {
+        ElementTable elements = new ElementTable(new SymbolTable());
+        elements.add(new Element("300121", "3001", "4", ""));
+        elements.add(new Element("300221", "3002", "4", ""));
+        assertTrue(elements.remove("300221"));
+        assertEquals(-1, elements.findRow("300221"));
+        elements.add(new Element("300221", "3002", "4", ""));
+        assertEquals(1, elements.findRow("300221"));
+        assertEquals(1, elements.findRow("3002", "4"));
+        assertEquals(1, elements.elementCount("3002"));
+
+        // Modify the last row to be a different part
+        elements.add(new Element("300221", "3003", "4", ""));
+        assertEquals(2, elements.size());
+        assertEquals(0, elements.elementCount("3002"));
+        assertEquals(1, elements.elementCount("3003"));
+        assertEquals(-1, elements.findRow("3002", "4"));
+    }
+}
@@ -0,0 +1,96 @@
+package mrpolyonymous.labelgenerator;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ExternalPartsSorterTest {
+
+    private static final Colour RED = new Colour("4", "Red", "C91A09", false);
+    private static final Colour BLUE = new Colour("1", "Blue", "0055BF", false);
+    private static final Colour BLACK = new Colour("0", "Black", "05131D", false);
+    private static final String[] PART_IDS = { "3020", "3001pr0001", "3001", "3023", "973pr1234", "3001a", "bb0001",
+            "300" };
+
+    @Test void testSameOrderAsMyParts(@TempDir Path tempDir) throws IOException {
+        PartsCsvDatabase partsDatabase = makeDatabase();
+        File partsFile = writePartsFile(tempDir);
+        List<PartColourQuantity> expected = sortInMemory(partsDatabase, partsFile);
+
+        File runFolder = tempDir.resolve("runs").toFile();
+        assertTrue(runFolder.mkdir());
+        List<PartColourQuantity> merged = new ArrayList<>();
+        try (ExternalPartsSorter sorter = new ExternalPartsSorter(partsDatabase, 6, runFolder)) {
+            sorter.readMyParts(partsFile);
+            assertEquals(50, sorter.numRows());
+            sorter.forEach(merged::add);
+            assertEquals(9, sorter.numRunFiles());
+        }
+        assertEquals(expected, merged);
+        assertEquals(0, runFolder.list().length);
+    }
+
+    @Test void testMergePassesBoundFanIn(@TempDir Path tempDir) throws IOException {
+        PartsCsvDatabase partsDatabase = makeDatabase();
+        File partsFile = writePartsFile(tempDir);
+        List<PartColourQuantity> expected = sortInMemory(partsDatabase, partsFile);
+
+        File runFolder = tempDir.resolve("runs").toFile();
+        assertTrue(runFolder.mkdir());
+        List<PartColourQuantity> merged = new ArrayList<>();
+        try (ExternalPartsSorter sorter = new ExternalPartsSorter(partsDatabase, 6, 3, runFolder)) {
+            sorter.readMyParts(partsFile);
+            sorter.forEach(merged::add);
+            assertTrue(sorter.numRunFiles() <= 3);
+            assertEquals(sorter.numRunFiles(), runFolder.list().length);
+        }
+        assertEquals(expected, merged);
+        assertEquals(0, runFolder.list().length);
+    }
+
+    @Test void testFanInTooSmall(@TempDir Path tempDir) {
+        assertThrows(IllegalArgumentException.class,
+                () -> new ExternalPartsSorter(makeDatabase(), 6, 1, tempDir.toFile()));
+    }
+
+    private static PartsCsvDatabase makeDatabase() {
+        PartsCsvDatabase partsDatabase = new PartsCsvDatabase();
+        for (Colour colour : List.of(RED, BLUE, BLACK)) {
+            partsDatabase.addColour(colour);
+        }
+        for (String partId : PART_IDS) {
+            partsDatabase.addPart(Part.from(partId, "Part " + partId, "11"));
+        }
+        partsDatabase.freeze();
+        return partsDatabase;
+    }
+
+    private static File writePartsFile(Path tempDir) throws IOException {
+        StringBuilder csv = new StringBuilder("Part,Color,Quantity\n");
+        Colour[] colours = { RED, BLUE, BLACK };
+        for (int i = 0; i < 50; i++) {
+            csv.append(PART_IDS[(i * 7) % PART_IDS.length]).append(',').append(colours[(i * 5) % 3].id()).append(',')
+                    .append(i % 4 + 1).append('\n');
+        }
+        File partsFile = tempDir.resolve("parts.csv").toFile();
+        Files.writeString(partsFile.toPath(), csv);
+        return partsFile;
+    }
+
+    private static List<PartColourQuantity> sortInMemory(PartsCsvDatabase partsDatabase, File partsFile)
+            throws IOException {
+        MyParts myParts = new MyParts(partsDatabase);
+        myParts.readMyParts(partsFile);
+        myParts.sort();
+        List<PartColourQuantity> sorted = new ArrayList<>();
+        myParts.forEach(sorted::add);
+        return sorted;
+    }
+}
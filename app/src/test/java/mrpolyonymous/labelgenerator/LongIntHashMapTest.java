@@ -0,0 +1,46 @@
+package mrpolyonymous.labelgenerator;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LongIntHashMapTest {
+
+    @Test void testPack() {
+        assertEquals(123456L << 32 | 7, LongIntHashMap.pack(123456, 7));
+        assertNotEquals(LongIntHashMap.pack(1, 2), LongIntHashMap.pack(2, 1));
+    }
+
+    @Test void testPutGetAddTo() {
+        LongIntHashMap map = new LongIntHashMap();
+        assertEquals(-1, map.put(LongIntHashMap.pack(1, 2), 10, -1));
+        assertEquals(10, map.put(LongIntHashMap.pack(1, 2), 11, -1));
+        assertEquals(11, map.get(LongIntHashMap.pack(1, 2), -1));
+        assertEquals(-1, map.get(LongIntHashMap.pack(2, 1), -1));
+        assertEquals(3, map.addTo(5L, 3));
+        assertEquals(5, map.addTo(5L, 2));
+        assertEquals(5, map.get(5L, -1));
+    }
+
+    @Test void testMatchesHashMap() {
+        LongIntHashMap map = new LongIntHashMap(4);
+        Map<Long, Integer> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 50000; i++) {
+            // Small key range so that there are lots of collisions and repeated keys
+            long key = LongIntHashMap.pack(random.nextInt(100), random.nextInt(50));
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.merge(key, 1, Integer::sum).intValue(), map.addTo(key, 1));
+            } else {
+                assertEquals(expected.getOrDefault(key, -1).intValue(), map.put(key, i, -1));
+                expected.put(key, i);
+            }
+        }
+        for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue().intValue(), map.get(entry.getKey(), -1));
+        }
+    }
+}
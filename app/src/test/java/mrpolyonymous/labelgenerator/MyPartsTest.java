@@ -0,0 +1,86 @@
+package mrpolyonymous.labelgenerator;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MyPartsTest {
+
+    private static final Colour RED = new Colour("4", "Red", "C91A09", false);
+    private static final Colour BLUE = new Colour("1", "Blue", "0055BF", false);
+
+    @Test void testDuplicatesAddUp() {
+        PartsCsvDatabase partsDatabase = new PartsCsvDatabase();
+        Part brick = Part.from("3001", "Brick 2 x 4", "11");
+        Part plate = Part.from("3020", "Plate 2 x 4", "14");
+        MyParts myParts = new MyParts(partsDatabase);
+        myParts.add(brick, RED, 2);
+        myParts.add(plate, RED, 1);
+        myParts.add(brick, BLUE, 4);
+        myParts.add(brick, RED, 3);
+
+        assertEquals(3, myParts.size());
+        List<PartColourQuantity> all = new ArrayList<>();
+        myParts.forEach(all::add);
+        assertEquals(List.of(new PartColourQuantity(brick, RED, 5), new PartColourQuantity(plate, RED, 1),
+                new PartColourQuantity(brick, BLUE, 4)), all);
+
+        assertEquals(2, myParts.coloursForPart(brick));
+        assertEquals(1, myParts.coloursForPart(plate));
+        assertEquals(0, myParts.coloursForPart(Part.from("3002", "Brick 2 x 3", "11")));
+        assertSame(plate, myParts.getPartForId("3020"));
+        assertNull(myParts.getPartForId("3002"));
+
+        List<MyParts.PartDetails> brickDetails = myParts.getPartsMap().get("3001");
+        assertEquals(2, brickDetails.size());
+        assertEquals(5, brickDetails.get(0).quantity());
+        assertEquals(BLUE, brickDetails.get(1).colour());
+    }
+
+    @Test void testSort() {
+        MyParts myParts = new MyParts(new PartsCsvDatabase());
+        myParts.add(Part.from("3020", "Plate 2 x 4", "14"), RED, 1);
+        myParts.add(Part.from("3001pr0001", "Brick 2 x 4 with print", "11"), RED, 1);
+        myParts.add(Part.from("3001", "Brick 2 x 4", "11"), BLUE, 1);
+        myParts.add(Part.from("3001", "Brick 2 x 4", "11"), RED, 1);
+        myParts.sort();
+        List<String> ids = new ArrayList<>();
+        myParts.forEach(pcq -> ids.add(pcq.part().id() + "/" + pcq.colour().id()));
+        assertEquals(List.of("3001/1", "3001/4", "3001pr0001/4", "3020/4"), ids);
+    }
+
+    @Test void testReadSeveralFiles(@TempDir Path tempDir) throws IOException {
+        PartsCsvDatabase partsDatabase = new PartsCsvDatabase();
+        partsDatabase.addColour(RED);
+        partsDatabase.addColour(BLUE);
+        partsDatabase.addPart(Part.from("3001", "Brick 2 x 4", "11"));
+        partsDatabase.addPart(Part.from("3020", "Plate 2 x 4", "14"));
+        partsDatabase.addElement(new Element("300121", "3001", "4", "3001"));
+        partsDatabase.addElement(new Element("302023", "3020", "1", "3020"));
+        partsDatabase.freeze();
+        File room1 = tempDir.resolve("room1.csv").toFile();
+        Files.writeString(room1.toPath(), "Part,Color,Quantity\n3001,4,2\n3020,1,1\n");
+        File room2 = tempDir.resolve("room2.csv").toFile();
+        Files.writeString(room2.toPath(), "Part,Color,Quantity\n3001,4,5\n3001,1,3\n");
+
+        assertEquals(Set.of("3001", "3020"), MyParts.readPartIds(List.of(room1, room2)));
+        MyParts myParts = MyParts.readMyParts(partsDatabase, List.of(room1, room2));
+        List<PartColourQuantity> all = new ArrayList<>();
+        myParts.forEach(all::add);
+        assertEquals(List.of(new PartColourQuantity(partsDatabase.getPartById("3001"), RED, 7),
+                new PartColourQuantity(partsDatabase.getPartById("3020"), BLUE, 1),
+                new PartColourQuantity(partsDatabase.getPartById("3001"), BLUE, 3)), all);
+        // Elements found while reading each file are kept
+        assertEquals("300121", myParts.getPartsMap().get("3001").get(0).element().id());
+        assertNull(myParts.getPartsMap().get("3001").get(1).element());
+        assertEquals("302023", myParts.getPartsMap().get("3020").get(0).element().id());
+    }
+}
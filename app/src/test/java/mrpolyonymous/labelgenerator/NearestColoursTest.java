@@ -0,0 +1,41 @@
+package mrpolyonymous.labelgenerator;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NearestColoursTest {
+
+    private static final Colour BLACK = new Colour("0", "Black", "05131D", false);
+    private static final Colour RED = new Colour("4", "Red", "C91A09", false);
+    private static final Colour LIGHT_BLUISH_GRAY = new Colour("71", "Light Bluish Gray", "A0A5A9", false);
+    private static final Colour TRANS_CLEAR = new Colour("47", "Trans-Clear", "FCFCFC", true);
+    private static final Colour DARK_RED = new Colour("320", "Dark Red", "720E0F", false);
+    private static final Colour TRANS_RED = new Colour("36", "Trans-Red", "C91A09", true);
+    private static final Colour WHITE = new Colour("15", "White", "FFFFFF", false);
+
+    @Test void testNearest() {
+        List<Colour> all = List.of(BLACK, RED, LIGHT_BLUISH_GRAY, TRANS_CLEAR, DARK_RED, TRANS_RED, WHITE);
+        NearestColours nearestColours = NearestColours.build(all, List.of(BLACK, RED, LIGHT_BLUISH_GRAY, TRANS_CLEAR));
+        assertEquals(RED, nearestColours.nearest(DARK_RED));
+        assertEquals(LIGHT_BLUISH_GRAY, nearestColours.nearest(WHITE));
+        assertEquals(RED, nearestColours.nearest(RED));
+        // Transparent colours match transparent colours, even if an opaque one is closer
+        assertEquals(TRANS_CLEAR, nearestColours.nearest(TRANS_RED));
+    }
+
+    @Test void testNoTransparentAvailable() {
+        NearestColours nearestColours = NearestColours.build(List.of(TRANS_RED), List.of(BLACK, RED));
+        assertEquals(RED, nearestColours.nearest(TRANS_RED));
+    }
+
+    @Test void testLab() {
+        double[] white = NearestColours.toLab("FFFFFF");
+        assertEquals(100, white[0], 0.01);
+        assertEquals(0, white[1], 0.1);
+        assertEquals(0, white[2], 0.1);
+        assertNull(NearestColours.toLab(""));
+        assertNull(NearestColours.toLab("GGGGGG"));
+    }
+}
@@ -0,0 +1,32 @@
+package mrpolyonymous.labelgenerator;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PartDescriptionIndexTest {
+
+    private static final List<Part> PARTS = List.of(
+            Part.from("3001", "Brick 2 x 4", "11"),
+            Part.from("3003", "Brick 2 x 2", "11"),
+            Part.from("3010", "Brick 1 x 4", "11"),
+            Part.from("2456", "Brick 2 x 6", "11"),
+            Part.from("3020", "Plate 2 x 4", "14"),
+            Part.from("98138", "Tile Round 1 x 1", "67"));
+
+    @Test void testFindExact() {
+        PartDescriptionIndex index = new PartDescriptionIndex(PARTS);
+        assertEquals("3001", index.findExact("brick 2 X 4").id());
+        assertNull(index.findExact("Brick 2 x 4 "));
+        assertEquals(PartDescriptionIndex.normalise("\u00C9l\u00E9ment"), PartDescriptionIndex.normalise("\u00E9L\u00C9MENT"));
+    }
+
+    @Test void testFindByTokens() {
+        PartDescriptionIndex index = new PartDescriptionIndex(PARTS);
+        List<Part> matches = index.findByTokens("Brick, Modified 2 x 4", 3);
+        assertEquals(List.of("3001", "3003", "2456"), matches.stream().map(Part::id).toList());
+        assertEquals("98138", index.findByTokens("Round tile", 10).get(0).id());
+        assertTrue(index.findByTokens("Minifig", 10).isEmpty());
+    }
+}
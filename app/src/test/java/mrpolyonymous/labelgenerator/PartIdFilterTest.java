@@ -0,0 +1,40 @@
+package mrpolyonymous.labelgenerator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PartIdFilterTest {
+
+    @Test void testExactFilter() {
+        PartIdFilter filter = PartIdFilter.of(List.of("3001", "3622pr0004"));
+        CsvTokenizer tokenizer = new CsvTokenizer(2);
+        tokenizer.reset("300121,3001");
+        assertTrue(filter.mightContain(tokenizer, 1));
+        assertFalse(filter.mightContain(tokenizer, 0));
+        assertTrue(filter.mightContain("3622pr0004"));
+        assertFalse(filter.mightContain("3622"));
+    }
+
+    @Test void testBloomFilter() {
+        List<String> partIds = new ArrayList<>();
+        for (int i = 0; i < PartIdFilter.BLOOM_FILTER_MIN_SIZE; i++) {
+            partIds.add("p" + i);
+        }
+        PartIdFilter filter = PartIdFilter.of(partIds);
+        CsvTokenizer tokenizer = new CsvTokenizer(1);
+        for (String partId : partIds) {
+            tokenizer.reset(partId);
+            assertTrue(filter.mightContain(tokenizer, 0));
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 100_000; i++) {
+            if (filter.mightContain("q" + i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 3000, "false positives " + falsePositives);
+    }
+}
@@ -0,0 +1,65 @@
+package mrpolyonymous.labelgenerator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PartOrderTest {
+
+    private static List<String> sortIds(String... ids) {
+        Part[] parts = new Part[ids.length];
+        long[] sortKeys = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            parts[i] = Part.from(ids[i], "Part", "11");
+            sortKeys[i] = PartOrder.sortKey(parts[i]);
+        }
+        List<String> sorted = new ArrayList<>();
+        for (int index : PartOrder.sortedIndexes(sortKeys, parts, ids.length)) {
+            sorted.add(ids[index]);
+        }
+        return sorted;
+    }
+
+    @Test void testOrder() {
+        assertEquals(List.of("300", "3001", "3001pr0001", "3001a", "3002", "30010", "123456789012", "upn0001", "x1"),
+                sortIds("x1", "3001a", "30010", "upn0001", "3001pr0001", "123456789012", "3002", "3001", "300"));
+    }
+
+    @Test void testKeysAgreeWithComparator() {
+        Random random = new Random(42);
+        String[] suffixes = { "", "a", "b", "c01", "pr0001", "pat01", "apr01", "\u00e9" };
+        Part[] parts = new Part[2000];
+        for (int i = 0; i < parts.length; i++) {
+            String number = switch (random.nextInt(4)) {
+            case 0 -> Integer.toString(random.nextInt(100));
+            case 1 -> "0" + random.nextInt(100);
+            case 2 -> Long.toString(20_000_000L + random.nextInt(100));
+            default -> "";
+            };
+            parts[i] = Part.from(number + suffixes[random.nextInt(suffixes.length)] + (number.isEmpty() ? "x" : ""),
+                    "Part", "11");
+        }
+        long[] sortKeys = new long[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            sortKeys[i] = PartOrder.sortKey(parts[i]);
+        }
+        for (int i = 0; i < parts.length; i++) {
+            for (int j = 0; j < parts.length; j++) {
+                if (sortKeys[i] < sortKeys[j]) {
+                    assertTrue(PartOrder.COMPARATOR.compare(parts[i], parts[j]) < 0, parts[i] + " " + parts[j]);
+                }
+            }
+        }
+
+        Part[] expected = parts.clone();
+        Arrays.sort(expected, PartOrder.COMPARATOR);
+        int[] indexes = PartOrder.sortedIndexes(sortKeys, parts, parts.length);
+        for (int i = 0; i < parts.length; i++) {
+            assertSame(expected[i], parts[indexes[i]]);
+        }
+    }
+}
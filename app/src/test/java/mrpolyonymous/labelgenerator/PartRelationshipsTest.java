@@ -0,0 +1,66 @@
+package mrpolyonymous.labelgenerator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PartRelationshipsTest {
+
+    private static PartRelationships read(String csv) throws IOException {
+        return PartRelationships.read(new BufferedReader(new StringReader(csv)));
+    }
+
+    @Test void testBasePart() throws IOException {
+        PartRelationships relationships = read("""
+                rel_type,child_part_num,parent_part_num
+                T,3001pat1,3001
+                P,3001pat1pr2,3001pat1
+                P,3068bpr0001,3068b
+                R,3815,3816
+                """);
+        assertEquals("3001", relationships.imagePartId("3001pat1pr2"));
+        assertEquals("3001", relationships.imagePartId("3001pat1"));
+        assertEquals("3001", relationships.imagePartId("3001"));
+        assertEquals("3068b", relationships.imagePartId("3068bpr0001"));
+        // Pairs aren't kept
+        assertNull(relationships.imagePartId("3815"));
+        assertNull(relationships.imagePartId("3003"));
+    }
+
+    @Test void testAlternatesNotFollowed() throws IOException {
+        PartRelationships relationships = read("""
+                rel_type,child_part_num,parent_part_num
+                M,3794b,3794a
+                A,15573,3794b
+                """);
+        // Alternates and molds aren't used for images
+        assertNull(relationships.imagePartId("3794b"));
+        assertNull(relationships.imagePartId("15573"));
+        assertTrue(relationships.isLoaded());
+    }
+
+    @Test void testImageAliases() throws IOException {
+        PartRelationships relationships = read("""
+                rel_type,child_part_num,parent_part_num
+                P,98560pr0001,98560
+                """);
+        assertEquals("3684", relationships.imagePartId("98560"));
+        assertEquals("3684", relationships.imagePartId("98560pr0001"));
+        assertEquals("3940", relationships.imagePartId("19798"));
+        assertEquals("3940", PartRelationships.EMPTY.imagePartId("19798"));
+        assertNull(PartRelationships.EMPTY.imagePartId("3001"));
+        assertFalse(PartRelationships.EMPTY.isLoaded());
+    }
+
+    @Test void testLoop() throws IOException {
+        PartRelationships relationships = read("""
+                rel_type,child_part_num,parent_part_num
+                P,a,b
+                P,b,a
+                """);
+        assertNotNull(relationships.imagePartId("a"));
+    }
+}
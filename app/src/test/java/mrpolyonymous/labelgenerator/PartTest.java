@@ -1,5 +1,9 @@
 package mrpolyonymous.labelgenerator;
 
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -19,5 +23,35 @@ public class PartTest {
         assertEquals("16709", Part.idIgnoringPrint("16709pats01pr0001"));
     }
 
-    
+    @Test void testFrom() {
+        Part part = Part.from("3622pr0004", "Brick 1 x 3 with print", "11");
+        assertEquals("3622", part.idIgnoringPrint());
+        assertEquals(3622, part.numericId());
+        assertNull(Part.from("2454a", "Brick 1 x 2 x 5", "11").numericId());
+        assertNull(Part.from("99999999999", "Too big", "11").numericId());
+        assertEquals(-5, Part.from("-5", "Negative", "11").numericId());
+        assertNull(Part.from("-", "Sign only", "11").numericId());
+        assertEquals(Integer.MIN_VALUE, Part.tryParseInt(Integer.toString(Integer.MIN_VALUE)));
+    }
+
+    private static final Pattern PRINT_PATTERN = Pattern.compile("^(.+)(pr|pat)[a-z]?\\d+$");
+
+    private static String regexIdIgnoringPrint(String id) {
+        Matcher m = PRINT_PATTERN.matcher(id);
+        return m.matches() ? regexIdIgnoringPrint(m.group(1)) : id;
+    }
+
+    @Test void testMatchesRegex() {
+        String[] pieces = { "pr", "pat", "p", "a", "t", "r", "s", "0", "1", "12", "x" };
+        Random random = new Random(42);
+        for (int i = 0; i < 50000; i++) {
+            StringBuilder sb = new StringBuilder();
+            int numPieces = 1 + random.nextInt(6);
+            for (int j = 0; j < numPieces; j++) {
+                sb.append(pieces[random.nextInt(pieces.length)]);
+            }
+            String id = sb.toString();
+            assertEquals(regexIdIgnoringPrint(id), Part.idIgnoringPrint(id), id);
+        }
+    }
 }
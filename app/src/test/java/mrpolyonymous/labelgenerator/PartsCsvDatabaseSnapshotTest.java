@@ -0,0 +1,76 @@
+package mrpolyonymous.labelgenerator;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PartsCsvDatabaseSnapshotTest {
+
+    private static final String COLOURS = "id,name,rgb,is_trans\n4,Red,C91A09,f\n";
+
+    private static PartsCsvDatabase database() throws IOException {
+        PartsCsvDatabase partsDatabase = new PartsCsvDatabase();
+        partsDatabase.readColours(new BufferedReader(new StringReader(COLOURS)));
+        return partsDatabase;
+    }
+
+    @Test void testTouchedSourceIsOnlyHashedOnce(@TempDir Path tempDir) throws IOException {
+        File sourceFile = tempDir.resolve("colors.csv").toFile();
+        Files.writeString(sourceFile.toPath(), COLOURS);
+        PartsCsvDatabaseSnapshot snapshot = new PartsCsvDatabaseSnapshot(tempDir.resolve("db.snapshot").toFile());
+        snapshot.save(database(), List.of(sourceFile));
+
+        // Touched but not changed, so the hash matches
+        long touchedTime = sourceFile.lastModified() + 60_000;
+        assertTrue(sourceFile.setLastModified(touchedTime));
+        PartsCsvDatabase loaded = snapshot.loadIfCurrent(List.of(sourceFile));
+        assertNotNull(loaded);
+        assertEquals("Red", loaded.getColourById("4").description());
+
+        // The snapshot now has the new modification time, so a change that keeps the size and the
+        // modification time isn't hashed and isn't noticed
+        Files.writeString(sourceFile.toPath(), COLOURS.replace("Red", "Rot"));
+        assertTrue(sourceFile.setLastModified(touchedTime));
+        assertNotNull(snapshot.loadIfCurrent(List.of(sourceFile)));
+
+        // A new modification time means the file is hashed again
+        assertTrue(sourceFile.setLastModified(touchedTime + 60_000));
+        assertNull(snapshot.loadIfCurrent(List.of(sourceFile)));
+    }
+
+    @Test void testUnchangedSources(@TempDir Path tempDir) throws IOException {
+        File colours = tempDir.resolve("colors.csv").toFile();
+        Files.writeString(colours.toPath(), COLOURS);
+        File categories = tempDir.resolve("part_categories.csv").toFile();
+        Files.writeString(categories.toPath(), "id,name\n11,Bricks\n");
+        PartsCsvDatabaseSnapshot snapshot = new PartsCsvDatabaseSnapshot(tempDir.resolve("db.snapshot").toFile());
+        assertArrayEquals(new boolean[] { false, false }, snapshot.unchangedSources(List.of(colours, categories)));
+        snapshot.save(database(), List.of(colours, categories));
+
+        Files.writeString(categories.toPath(), "id,name\n11,Bricks\n12,Technic\n");
+        assertArrayEquals(new boolean[] { true, false }, snapshot.unchangedSources(List.of(colours, categories)));
+    }
+
+    @Test void testLoadForUpdate(@TempDir Path tempDir) throws IOException {
+        File sourceFile = tempDir.resolve("colors.csv").toFile();
+        Files.writeString(sourceFile.toPath(), COLOURS);
+        PartsCsvDatabaseSnapshot snapshot = new PartsCsvDatabaseSnapshot(tempDir.resolve("db.snapshot").toFile());
+        snapshot.save(database(), List.of(sourceFile));
+
+        CatalogueChanges changes = snapshot.loadForUpdate();
+        assertNotNull(changes);
+        changes.diffColours(new BufferedReader(new StringReader(COLOURS + "1,Blue,0055BF,f\n")));
+        assertEquals(1, changes.colours.added().size());
+        assertEquals(1, changes.size());
+        changes.apply();
+        assertEquals("Blue", changes.partsDatabase().getColourById("1").description());
+    }
+}
@@ -0,0 +1,84 @@
+package mrpolyonymous.labelgenerator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PartsCsvDatabaseTest {
+
+    private static final String PARTS_CSV = """
+            part_num,name,part_cat_id,part_material
+            3001,Brick 2 x 4,11,Plastic
+            30010,Panel 1 x 2 x 3,23,Plastic
+            3001pr0001,Brick 2 x 4 with print,11,Plastic
+            3002,Brick 2 x 3,11,Plastic
+            300,Tyre,29,Rubber
+            """;
+
+    private static PartsCsvDatabase readParts() throws IOException {
+        PartsCsvDatabase partsDatabase = new PartsCsvDatabase();
+        partsDatabase.readFullPartsList(new BufferedReader(new StringReader(PARTS_CSV)));
+        return partsDatabase;
+    }
+
+    @Test void testIdPrefix() throws IOException {
+        PartsCsvDatabase partsDatabase = readParts();
+        assertEquals(List.of("3001", "30010", "3001pr0001"),
+                partsDatabase.getPartsByIdPrefix("3001").stream().map(Part::id).toList());
+        assertEquals("3001", partsDatabase.tryGetPartByIdPrefix("3001").id());
+        assertEquals("300", partsDatabase.tryGetPartByIdPrefix("30").id());
+        assertEquals("3002", partsDatabase.tryGetPartByIdPrefix("3002").id());
+        assertNull(partsDatabase.tryGetPartByIdPrefix("3004"));
+        assertEquals(5, partsDatabase.getPartsByIdPrefix("").size());
+
+        partsDatabase.addPart(Part.from("3004", "Brick 1 x 2", "11"));
+        assertEquals("3004", partsDatabase.tryGetPartByIdPrefix("3004").id());
+    }
+
+    @Test void testElementsByPartColour() throws IOException {
+        PartsCsvDatabase partsDatabase = new PartsCsvDatabase();
+        partsDatabase.readElements(new BufferedReader(new StringReader("""
+                element_id,part_num,color_id,design_id
+                6123456,3001,4,3001
+                300121,3001,4,3001
+                4211,3001,5,3001
+                """)));
+        assertEquals("300121", partsDatabase.tryGetElementByPartColourId("3001", "4").id());
+        assertEquals("6123456", partsDatabase.tryGetElementByPartColourId("3001", "4",
+                PartsCsvDatabase.NEWEST_ELEMENT_LAST).id());
+        assertEquals(List.of("6123456", "300121"),
+                partsDatabase.getElementsByPartColourId("3001", "4").stream().map(Element::id).toList());
+        assertEquals(3, partsDatabase.getElementCountByPartId("3001"));
+        assertNull(partsDatabase.tryGetElementByPartColourId("3001", "1", PartsCsvDatabase.NEWEST_ELEMENT_LAST));
+    }
+
+    @Test void testFilteredElements() throws IOException {
+        PartsCsvDatabase partsDatabase = new PartsCsvDatabase();
+        partsDatabase.readElements(new BufferedReader(new StringReader("""
+                element_id,part_num,color_id,design_id
+                300121,3001,4,3001
+                300221,3002,4,3002
+                """)), PartIdFilter.of(Set.of("3002")));
+        assertEquals(1, partsDatabase.getElements().size());
+        assertEquals("300221", partsDatabase.getElementByPartColourId("3002", "4").id());
+        assertNull(partsDatabase.tryGetElementByPartColourId("3001", "4"));
+    }
+
+    @Test void testFreeze() throws IOException {
+        PartsCsvDatabase partsDatabase = readParts();
+        assertFalse(partsDatabase.isFrozen());
+        assertSame(partsDatabase, partsDatabase.freeze());
+        assertTrue(partsDatabase.isFrozen());
+        assertEquals("Brick 2 x 3", partsDatabase.getPartById("3002").description());
+        assertEquals("3001", partsDatabase.tryGetPartByIdPrefix("3001").id());
+        assertThrows(IllegalStateException.class, () -> partsDatabase.addPart(Part.from("3004", "Brick 1 x 2", "11")));
+        assertThrows(IllegalStateException.class, () -> partsDatabase.removePart("3001"));
+        assertThrows(IllegalStateException.class, () -> partsDatabase.readElements(new BufferedReader(new StringReader(
+                "element_id,part_num,color_id,design_id\n300121,3001,4,3001\n"))));
+    }
+}
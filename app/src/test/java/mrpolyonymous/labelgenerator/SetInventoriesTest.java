@@ -0,0 +1,47 @@
+package mrpolyonymous.labelgenerator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SetInventoriesTest {
+
+    private static BufferedReader csv(String data) {
+        return new BufferedReader(new StringReader(data));
+    }
+
+    @Test void testJoin() throws IOException {
+        SetInventories setInventories = new SetInventories(List.of("1000-1", "2000", "9999-1"), false);
+        Set<String> missing = setInventories.readInventories(csv("""
+                id,version,set_num
+                1,1,1000-1
+                2,2,1000-1
+                3,1,2000-1
+                4,1,3000-1
+                5,1,4000-1
+                """), csv("""
+                inventory_id,set_num,quantity
+                3,3000-1,2
+                """));
+        assertEquals(Set.of("9999-1"), missing);
+
+        List<SetInventories.InventoryPart> parts = setInventories.readInventoryParts(csv("""
+                inventory_id,part_num,color_id,quantity,is_spare,img_url
+                1,3001,4,10,f,
+                2,3001,4,4,f,
+                2,3001,4,1,t,
+                3,3003,1,2,f,
+                4,3004,0,3,f,https://cdn.rebrickable.com/media/parts/elements/300426.jpg
+                5,3005,0,1,f,
+                """));
+        assertEquals(List.of(
+                new SetInventories.InventoryPart("3001", "4", 4),
+                new SetInventories.InventoryPart("3003", "1", 2),
+                new SetInventories.InventoryPart("3004", "0", 6)), parts);
+    }
+}
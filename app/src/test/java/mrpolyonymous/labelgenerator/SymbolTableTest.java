@@ -0,0 +1,47 @@
+package mrpolyonymous.labelgenerator;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SymbolTableTest {
+
+    @Test void testDenseCodes() {
+        SymbolTable symbols = new SymbolTable();
+        assertEquals(0, symbols.intern("71"));
+        assertEquals(1, symbols.intern("0"));
+        assertEquals(0, symbols.intern(new String("71")));
+        assertEquals(2, symbols.size());
+        assertEquals("0", symbols.get(1));
+        assertEquals(-1, symbols.find("72"));
+        assertThrows(IndexOutOfBoundsException.class, () -> symbols.get(2));
+    }
+
+    @Test void testCanonicalInstance() {
+        SymbolTable symbols = new SymbolTable();
+        String first = new String("1088");
+        assertSame(first, symbols.canonical(first));
+        assertSame(first, symbols.canonical(new String("1088")));
+    }
+
+    @Test void testInternFromTokenizer() {
+        SymbolTable symbols = new SymbolTable();
+        String red = symbols.canonical("4");
+        CsvTokenizer tokenizer = new CsvTokenizer(3);
+        tokenizer.reset("6000001,3001,4");
+        assertSame(red, symbols.canonical(tokenizer, 2));
+        assertEquals(-1, symbols.find(tokenizer, 1));
+        assertEquals(1, symbols.intern(tokenizer, 1));
+        assertEquals("3001", symbols.get(1));
+    }
+
+    @Test void testGrow() {
+        SymbolTable symbols = new SymbolTable(2);
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i, symbols.intern(Integer.toString(i)));
+        }
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i, symbols.find(Integer.toString(i)));
+        }
+        assertEquals(10000, symbols.size());
+    }
+}
@@ -35,4 +35,26 @@ public class UtilsTest {
         assertEquals(id, trimmed);
     }
 
+    @Test void testSplitCsv() {
+        assertArrayEquals(new String[] {"3001", "Brick 2 x 4", "11", "Plastic"},
+                Utils.splitCsv("3001,Brick 2 x 4,11,Plastic", 4));
+    }
+
+    @Test void testSplitCsvEmptyFields() {
+        assertArrayEquals(new String[] {"6006041", "3001", "1", ""},
+                Utils.splitCsv("6006041,3001,1,", 4));
+        assertArrayEquals(new String[] {"", ""}, Utils.splitCsv(",", 2));
+    }
+
+    @Test void testSplitCsvQuoted() {
+        assertArrayEquals(new String[] {"3001", "Brick, Special", "11"},
+                Utils.splitCsv("3001,\"Brick, Special\",11", 3));
+        assertArrayEquals(new String[] {"1", "Say Hi", "2"},
+                Utils.splitCsv("1,\"Say \"\"Hi\"\"\",2", 3));
+    }
+
+    @Test void testSplitCsvWrongColumns() {
+        assertThrows(RuntimeException.class, () -> Utils.splitCsv("1,2", 3));
+    }
+
 }
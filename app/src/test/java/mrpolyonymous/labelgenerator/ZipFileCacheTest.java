@@ -0,0 +1,54 @@
+package mrpolyonymous.labelgenerator;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ZipFileCacheTest {
+
+    private static File makeZip(Path folder, String name) throws IOException {
+        File file = folder.resolve(name + ".zip").toFile();
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file))) {
+            out.putNextEntry(new ZipEntry("3001.png"));
+            out.write(new byte[] { 1, 2, 3 });
+            out.closeEntry();
+        }
+        return file;
+    }
+
+    @Test void testLeastRecentlyUsedIsClosed(@TempDir Path tempDir) throws IOException {
+        File red = makeZip(tempDir, "4");
+        File blue = makeZip(tempDir, "1");
+        File black = makeZip(tempDir, "0");
+        ZipFileCache cache = new ZipFileCache(2);
+        ZipFile redZip = cache.get(red);
+        ZipFile blueZip = cache.get(blue);
+        assertSame(redZip, cache.get(red));
+        // Blue is the least recently used now
+        ZipFile blackZip = cache.get(black);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.hits());
+        assertEquals(3, cache.misses());
+        assertEquals(1, cache.evictions());
+        assertThrows(IllegalStateException.class, () -> blueZip.getEntry("3001.png"));
+        assertNotNull(redZip.getEntry("3001.png"));
+
+        ZipFile blueAgain = cache.get(blue);
+        assertNotSame(blueZip, blueAgain);
+        assertNotNull(blueAgain.getEntry("3001.png"));
+        assertEquals(4, cache.misses());
+
+        cache.close();
+        assertEquals(0, cache.size());
+        assertThrows(IllegalStateException.class, () -> blackZip.getEntry("3001.png"));
+        assertThrows(IllegalStateException.class, () -> blueAgain.getEntry("3001.png"));
+    }
+}
@@ -0,0 +1,137 @@
+package mrpolyonymous.rebrickableapi;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class UserPartsSyncTest {
+
+    private static final String PAGE_1 = """
+            {"count": 3, "next": "https://rebrickable.com/api/v3/users/abc/allparts/?page=2", "previous": null,
+             "results": [
+              {"quantity": 12, "list_id": 1,
+               "part": {"part_num": "3001", "name": "Brick 2 x 4", "part_cat_id": 11},
+               "color": {"id": 4, "name": "Red", "rgb": "C91A09", "is_trans": false}},
+              {"quantity": 3,
+               "part": {"part_num": "3020", "name": "Plate 2 x 4", "part_cat_id": 14},
+               "color": {"id": 1, "name": "Blue", "rgb": "0055BF", "is_trans": false}}
+             ]}
+            """;
+    private static final String PAGE_2 = """
+            {"count": 3, "next": null, "previous": "https://rebrickable.com/api/v3/users/abc/allparts/",
+             "results": [
+              {"quantity": 1,
+               "part": {"part_num": "3023", "name": "Plate 1 x 2", "part_cat_id": 14},
+               "color": {"id": 47, "name": "Trans-Clear", "rgb": "FCFCFC", "is_trans": true}}
+             ]}
+            """;
+
+    /** Serves pages from JSON, like the API would, and can fail on one page */
+    private static class FakePageSource implements UserPartsSync.PageSource {
+        private final ObjectMapper objectMapper = new ObjectMapper();
+        private Map<Integer, String> pages;
+        private final List<Integer> fetched = new ArrayList<>();
+        private int failOnPage;
+
+        FakePageSource(Map<Integer, String> pages) {
+            this.pages = pages;
+        }
+
+        @Override
+        public UserPartsPage fetchPage(int page, int pageSize) throws IOException {
+            if (page == failOnPage) {
+                throw new IOException("Too many requests");
+            }
+            fetched.add(page);
+            return new UserPartsPage(page, objectMapper.readValue(pages.get(page), ApiUserParts.class));
+        }
+    }
+
+    @Test void testSync(@TempDir Path tempDir) throws Exception {
+        File syncFolder = tempDir.resolve("allparts").toFile();
+        FakePageSource source = new FakePageSource(Map.of(1, PAGE_1, 2, PAGE_2));
+        List<File> listened = new ArrayList<>();
+        UserPartsSync sync = new UserPartsSync(syncFolder, source, 2, Duration.ZERO);
+        List<File> pageFiles = sync.sync(listened::add);
+        assertEquals(List.of(1, 2), source.fetched);
+        assertEquals(pageFiles, listened);
+        assertEquals(2, sync.getNumPagesChanged());
+        assertEquals("Part,Color,Quantity\n3001,4,12\n3020,1,3\n", Files.readString(pageFiles.get(0).toPath()));
+        assertEquals("Part,Color,Quantity\n3023,47,1\n", Files.readString(pageFiles.get(1).toPath()));
+
+        // Nothing changed, so only the first page is fetched to check
+        source.fetched.clear();
+        sync = new UserPartsSync(syncFolder, source, 2, Duration.ZERO);
+        assertEquals(pageFiles, sync.sync(file -> {}));
+        assertEquals(List.of(1), source.fetched);
+        assertEquals(0, sync.getNumPagesChanged());
+
+        // A full sync fetches every page but writes none
+        source.fetched.clear();
+        sync = new UserPartsSync(syncFolder, source, 2, Duration.ZERO, Duration.ZERO);
+        assertEquals(pageFiles, sync.sync(file -> {}));
+        assertEquals(List.of(1, 2), source.fetched);
+        assertEquals(0, sync.getNumPagesChanged());
+
+        // A recent complete sync is used without fetching anything
+        source.fetched.clear();
+        sync = new UserPartsSync(syncFolder, source, 2, Duration.ofHours(1));
+        assertEquals(pageFiles, sync.sync(file -> {}));
+        assertEquals(List.of(), source.fetched);
+
+        // A part added to page 2 changes the count on every page, but only page 2 has different rows
+        String page2WithNewPart = PAGE_2.replace("\"quantity\": 1,", """
+                "quantity": 2,
+                   "part": {"part_num": "3024", "name": "Plate 1 x 1", "part_cat_id": 14},
+                   "color": {"id": 4, "name": "Red", "rgb": "C91A09", "is_trans": false}},
+                  {"quantity": 1,""");
+        source.pages = Map.of(1, PAGE_1.replace("\"count\": 3", "\"count\": 4"),
+                2, page2WithNewPart.replace("\"count\": 3", "\"count\": 4"));
+        source.fetched.clear();
+        sync = new UserPartsSync(syncFolder, source, 2, Duration.ZERO);
+        assertEquals(pageFiles, sync.sync(file -> {}));
+        assertEquals(List.of(1, 2), source.fetched);
+        assertEquals(1, sync.getNumPagesChanged());
+        assertEquals("Part,Color,Quantity\n3024,4,2\n3023,47,1\n", Files.readString(pageFiles.get(1).toPath()));
+
+        // A quantity change on page 2 keeps the count, so only a full sync finds it
+        source.pages = Map.of(1, source.pages.get(1), 2, source.pages.get(2).replace("\"quantity\": 2,", "\"quantity\": 5,"));
+        source.fetched.clear();
+        sync = new UserPartsSync(syncFolder, source, 2, Duration.ZERO);
+        sync.sync(file -> {});
+        assertEquals(List.of(1), source.fetched);
+        source.fetched.clear();
+        sync = new UserPartsSync(syncFolder, source, 2, Duration.ZERO, Duration.ZERO);
+        sync.sync(file -> {});
+        assertEquals(List.of(1, 2), source.fetched);
+        assertEquals("Part,Color,Quantity\n3024,4,5\n3023,47,1\n", Files.readString(pageFiles.get(1).toPath()));
+    }
+
+    @Test void testResumeInterruptedSync(@TempDir Path tempDir) throws Exception {
+        File syncFolder = tempDir.toFile();
+        FakePageSource source = new FakePageSource(Map.of(1, PAGE_1, 2, PAGE_2));
+        source.failOnPage = 2;
+        List<File> listened = new ArrayList<>();
+        UserPartsSync sync = new UserPartsSync(syncFolder, source, 2, Duration.ofHours(1));
+        assertThrows(IOException.class, () -> sync.sync(listened::add));
+        assertEquals(1, listened.size());
+
+        source.failOnPage = 0;
+        source.fetched.clear();
+        List<File> pageFiles = new UserPartsSync(syncFolder, source, 2, Duration.ofHours(1)).sync(file -> {});
+        assertEquals(List.of(2), source.fetched);
+        assertEquals(2, pageFiles.size());
+        assertEquals("Part,Color,Quantity\n3001,4,12\n3020,1,3\n", Files.readString(pageFiles.get(0).toPath()));
+    }
+}